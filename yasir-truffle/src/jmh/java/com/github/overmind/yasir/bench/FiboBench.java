@@ -0,0 +1,48 @@
+package com.github.overmind.yasir.bench;
+
+import com.github.overmind.yasir.ast.TestFiboClosure;
+import com.oracle.truffle.api.RootCallTarget;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// fibo(n) for each of the TestFiboClosure strategies. The "1x / 1/4x / 5.5x" notes in
+// TestFiboClosure are relative to createFullyTruffled.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FiboBench {
+    @Param({
+            "createFullyTruffled",
+            "createPassFunc",
+            "createPassFuncBoxed",
+            "createPassMoreFunc",
+            "createPassMoreFuncInArray",
+            "createPassMoreFuncInParentsMatFrame",
+            "createPassMoreFuncInFreshlyCreatedMatFrame",
+            "createPassMoreFuncInFreshlyCreatedMatFrameIntoLocal",
+            "createInjectClosuresThroughCompilationContext",
+            "createInjectBoxedClosuresThroughCompilationContext",
+            "createFastCPSWithArrayBasedClosure",
+            "createLabeledCPS",
+    })
+    public String strategy;
+
+    @Param("30")
+    public long n;
+
+    private RootCallTarget target;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        target = Strategies.callTarget(TestFiboClosure.class, strategy, n);
+    }
+
+    @Benchmark
+    public Object fibo() {
+        return target.call();
+    }
+}
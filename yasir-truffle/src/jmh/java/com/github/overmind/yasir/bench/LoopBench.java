@@ -0,0 +1,50 @@
+package com.github.overmind.yasir.bench;
+
+import com.github.overmind.yasir.ast.TestLoopClosure;
+import com.oracle.truffle.api.RootCallTarget;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// sum(1..n) for each of the TestLoopClosure strategies.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LoopBench {
+    @Param({
+            "createCheckWhyIAmSlow",
+            "createTailcallWithExplicitCPSLoop",
+            "createTailcallMutatingMatFrame",
+            "createTailcallWithStateInArgs",
+            "createPassingPrimOpsInFreshMatFrameIntoLocal",
+            "createPassingPrimOpsInFreshMatFrame",
+            "createReadingPrimOpsFromParentsMatFrame",
+            "createPassingPrimOpsInParentsMatFrame",
+            "createPassingPrimOpsInArray",
+            "createPassingPrimOps",
+            "createFaster",
+            "createFastestBoxed",
+            "createFastest",
+            "createStandard",
+            "createStandardBoxed",
+    })
+    public String strategy;
+
+    @Param("100000000")
+    public long n;
+
+    private RootCallTarget target;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        target = Strategies.callTarget(TestLoopClosure.class, strategy, n);
+    }
+
+    @Benchmark
+    public Object loop() {
+        return target.call();
+    }
+}
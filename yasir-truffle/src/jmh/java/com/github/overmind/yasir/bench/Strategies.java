@@ -0,0 +1,19 @@
+package com.github.overmind.yasir.bench;
+
+import com.github.overmind.yasir.Yasir;
+import com.github.overmind.yasir.ast.ApplyNode;
+import com.github.overmind.yasir.ast.PrimOp;
+import com.github.overmind.yasir.value.BareFunction;
+import com.oracle.truffle.api.RootCallTarget;
+
+final class Strategies {
+    private Strategies() {
+    }
+
+    // Looks up one of the static `create*` strategies (e.g. TestFiboClosure.createFullyTruffled)
+    // by name and wraps it into a call target that applies it to n.
+    static RootCallTarget callTarget(Class<?> owner, String strategy, long n) throws ReflectiveOperationException {
+        BareFunction func = (BareFunction) owner.getMethod(strategy).invoke(null);
+        return Yasir.createCallTarget(ApplyNode.known(func, PrimOp.litL(n)));
+    }
+}
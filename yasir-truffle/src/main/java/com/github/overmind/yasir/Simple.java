@@ -2,6 +2,7 @@ package com.github.overmind.yasir;
 
 import com.github.overmind.yasir.ast.*;
 import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Global;
 import com.oracle.truffle.api.frame.*;
 
 public class Simple {
@@ -12,20 +13,21 @@ public class Simple {
 
     public static Expr makeBench(int count, long warmupN, long n, BareFunction c) {
         FrameDescriptor mainFd = new FrameDescriptor();
-        FrameSlot funcSlot = mainFd.addFrameSlot("funcSlot");
         FrameSlot nSlot = mainFd.addFrameSlot("n");
-        Expr main = MkLambda.create("main", array(nSlot), array(funcSlot),
+        // A global rather than a local, so that reading it folds to c.
+        Global func = new Global("bench-function");
+        Expr main = MkLambda.create("main", array(nSlot), new FrameSlot[0],
                 Begin.create(
-                        Vars.writeBox(funcSlot, PrimOp.litObj(c)),
+                        Globals.define(func, PrimOp.litObj(c)),
 
                         // Warmup. Loops needs 2 more times for OSR and the function body.
-                        ApplyNode.unknown(Vars.readBox(funcSlot), PrimOp.litL(warmupN)),
-                        ApplyNode.unknown(Vars.readBox(funcSlot), PrimOp.litL(warmupN)),
-                        ApplyNode.unknown(Vars.readBox(funcSlot), PrimOp.litL(warmupN)),
+                        ApplyNode.unknown(Globals.read(func), PrimOp.litL(warmupN)),
+                        ApplyNode.unknown(Globals.read(func), PrimOp.litL(warmupN)),
+                        ApplyNode.unknown(Globals.read(func), PrimOp.litL(warmupN)),
 
                         // Actual bench.
                         PrimOp.bench(
-                            ApplyNode.unknown(Vars.readBox(funcSlot), Vars.read(nSlot)),
+                            ApplyNode.unknown(Globals.read(func), Vars.read(nSlot)),
                             count
                         )
                 ),
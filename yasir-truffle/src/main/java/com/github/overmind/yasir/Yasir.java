@@ -2,6 +2,8 @@ package com.github.overmind.yasir;
 
 import com.github.overmind.yasir.ast.Expr;
 import com.github.overmind.yasir.ast.RootEntry;
+import com.github.overmind.yasir.parse.Parser;
+import com.github.overmind.yasir.value.FrameClosure;
 import com.oracle.truffle.api.*;
 import com.oracle.truffle.api.frame.Frame;
 import com.oracle.truffle.api.frame.FrameDescriptor;
@@ -31,12 +33,15 @@ public class Yasir {
         return rt().createCallTarget(RootEntry.create(body));
     }
 
+    // A function that needs an environment gets it as its first argument: either a FrameClosure
+    // over the frame it was created in, or that frame itself when the closure never escapes.
     @ExplodeLoop
     public static MaterializedFrame atDepth(VirtualFrame frame, int depth) {
         CompilerAsserts.compilationConstant(depth);
         Frame here = frame;
         while (depth > 0) {
-            here = (MaterializedFrame) here.getArguments()[0];
+            Object env = here.getArguments()[0];
+            here = env instanceof FrameClosure ? ((FrameClosure) env).frame : (MaterializedFrame) env;
             --depth;
         }
         return (MaterializedFrame) here;
@@ -54,7 +59,7 @@ public class Yasir {
 
         @Override
         protected CallTarget parse(Source code, Node context, String... argumentNames) throws IOException {
-            return null;
+            return createCallTarget(Parser.compile(code.getReader()));
         }
 
         @Override
@@ -1,8 +1,28 @@
 package com.github.overmind.yasir;
 
 import com.github.overmind.yasir.value.*;
+import com.oracle.truffle.api.dsl.ImplicitCast;
 import com.oracle.truffle.api.dsl.TypeSystem;
 
-@TypeSystem(value = {long.class, boolean.class, Symbol.class, BareFunction.class, Closure.class, Box.class, Nil.class, Object[].class})
+import java.math.BigInteger;
+
+// Numbers are fixnums (long), bignums (BigInteger, only for values that don't fit a long)
+// and flonums (double). A fixnum can be used where either of the others is expected, and a
+// bignum where a flonum is.
+@TypeSystem(value = {long.class, double.class, boolean.class, char.class, BigInteger.class, Symbol.class, SchemeString.class, BareFunction.class, Closure.class, Box.class, Pair.class, Vector.class, HashTable.class, Nil.class, Object[].class})
 public abstract class YasirTypes {
+    @ImplicitCast
+    public static double castDouble(long value) {
+        return value;
+    }
+
+    @ImplicitCast
+    public static double castDouble(BigInteger value) {
+        return Numbers.toDouble(value);
+    }
+
+    @ImplicitCast
+    public static BigInteger castBigInteger(long value) {
+        return BigInteger.valueOf(value);
+    }
 }
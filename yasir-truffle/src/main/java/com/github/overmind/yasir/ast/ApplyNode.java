@@ -1,15 +1,18 @@
 package com.github.overmind.yasir.ast;
 
 import com.github.overmind.yasir.Yasir;
-import com.github.overmind.yasir.interp.InterpException;
+import com.github.overmind.yasir.interp.TailCall;
 import com.github.overmind.yasir.value.BareFunction;
 import com.github.overmind.yasir.value.Closure;
+import com.oracle.truffle.api.Assumption;
 import com.oracle.truffle.api.CompilerAsserts;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.frame.FrameInstance;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.nodes.ExplodeLoop;
 import com.oracle.truffle.api.nodes.UnexpectedResultException;
-import com.oracle.truffle.api.profiles.BranchProfile;
+import com.oracle.truffle.api.profiles.ConditionProfile;
 
 public final class ApplyNode {
     public static Expr known(BareFunction func, Expr... args) {
@@ -21,7 +24,11 @@ public final class ApplyNode {
     }
 
     public static Expr unknown(Expr func, Expr... args) {
-        return new UnknownApplyNode(func, args);
+        return new UnknownApplyNode(func, false, args);
+    }
+
+    public static Expr unknownTail(Expr func, Expr... args) {
+        return new UnknownApplyNode(func, true, args);
     }
 
     // And is tail call.
@@ -50,6 +57,32 @@ public final class ApplyNode {
         return values;
     }
 
+    // Makes the call, then keeps bouncing for as long as the callee hands back a tail call.
+    // The bounces have their own inline cache, so they don't crowd out the site's own callee.
+    static Object callTrampolined(VirtualFrame frame, DispatchClosureNode dispatchNode,
+                                  DispatchClosureNode bounceNode, BareFunction func, Object[] args) {
+        Object result = dispatchNode.executeDispatch(frame, func, args);
+        while (result instanceof TailCall) {
+            TailCall next = (TailCall) result;
+            result = bounceNode.executeDispatch(frame, next.func, next.args);
+        }
+        return result;
+    }
+
+    // For primitives that call a function value they were given.
+    static Object callValue(VirtualFrame frame, DispatchClosureNode dispatchNode,
+                            DispatchClosureNode bounceNode, Object func, Object... args) {
+        if (func instanceof Closure) {
+            Object[] withEnv = new Object[args.length + 1];
+            withEnv[0] = func;
+            System.arraycopy(args, 0, withEnv, 1, args.length);
+            return callTrampolined(frame, dispatchNode, bounceNode, ((Closure) func).bareFunction, withEnv);
+        }
+        return callTrampolined(frame, dispatchNode, bounceNode, (BareFunction) func, args);
+    }
+
+    // The callee is either a BareFunction or a Closure. A closure is passed to its function
+    // as the first argument.
     public static class UnknownApplyNode extends Expr {
         @Child
         private Expr func;
@@ -60,16 +93,42 @@ public final class ApplyNode {
         @Child
         protected DispatchClosureNode dispatchNode = DispatchClosureNodeGen.create();
 
+        @Child
+        protected DispatchClosureNode bounceNode = DispatchClosureNodeGen.create();
+
+        final boolean tail;
+
+        private final ConditionProfile isClosure = ConditionProfile.createBinaryProfile();
+
         public UnknownApplyNode(Expr func, Expr... args) {
+            this(func, false, args);
+        }
+
+        public UnknownApplyNode(Expr func, boolean tail, Expr... args) {
             this.func = func;
             this.args = args;
+            this.tail = tail;
         }
 
         @Override
         public Object executeGeneric(VirtualFrame frame) {
-            return dispatchNode.executeDispatch(frame,
-                    (BareFunction) func.executeGeneric(frame),
-                    evalArgs(frame, args));
+            CompilerAsserts.compilationConstant(tail);
+
+            Object funcValue = func.executeGeneric(frame);
+            BareFunction target;
+            Object[] argValues;
+            if (isClosure.profile(funcValue instanceof Closure)) {
+                Closure closure = (Closure) funcValue;
+                target = closure.bareFunction;
+                argValues = evalArgs(frame, closure, args);
+            } else {
+                target = (BareFunction) funcValue;
+                argValues = evalArgs(frame, args);
+            }
+            if (tail) {
+                return new TailCall(target, argValues);
+            }
+            return callTrampolined(frame, dispatchNode, bounceNode, target, argValues);
         }
     }
 
@@ -94,7 +153,7 @@ public final class ApplyNode {
             Object[] argValues;
             funcValue = (Closure) func.executeGeneric(frame);
             argValues = evalArgs(frame, funcValue, args);
-            throw InterpException.tailCall(funcValue.bareFunction, argValues);
+            return new TailCall(funcValue.bareFunction, argValues);
         }
     }
 
@@ -107,9 +166,25 @@ public final class ApplyNode {
         @Child
         protected DispatchClosureNode dispatchNode = DispatchClosureNodeGen.create();
 
+        @Child
+        protected DispatchClosureNode bounceNode = DispatchClosureNodeGen.create();
+
         final boolean tail;
 
-        private final BranchProfile tailTaken = BranchProfile.create();
+        // Bit i is set while argument i of the callee has only been a long, at any of its call
+        // sites (see RootEntry.LongArgs). Decided on the first call, as the callee may not be
+        // built before.
+        @CompilationFinal
+        private long unboxedArgs;
+
+        @CompilationFinal
+        private RootEntry.LongArgs longArgs;
+
+        @CompilationFinal
+        private Assumption calleeNotChanged;
+
+        @CompilationFinal
+        private Assumption longArgsUnchanged;
 
         public KnownApplyNode(BareFunction func, Expr... args) {
             this(func, false, args);
@@ -127,20 +202,56 @@ public final class ApplyNode {
             CompilerAsserts.compilationConstant(tail);
             CompilerAsserts.compilationConstant(func);
 
+            if (calleeNotChanged == null || !calleeNotChanged.isValid()
+                    || longArgsUnchanged != null && !longArgsUnchanged.isValid()) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                calleeNotChanged = func.targetNotChanged();
+                profileArgs();
+            }
+
             BareFunction funcValue = func;
-            Object[] argValues = evalArgs(frame, args);
+            Object[] argValues = unboxedArgs == 0 ? evalArgs(frame, args) : evalArgsUnboxed(frame);
             if (tail) {
-                throw InterpException.tailCall(funcValue, argValues);
+                return new TailCall(funcValue, argValues);
+            }
+            return callTrampolined(frame, dispatchNode, bounceNode, funcValue, argValues);
+        }
+
+        private void profileArgs() {
+            longArgs = RootEntry.longArgs(func.target());
+            if (longArgs == null) {
+                longArgsUnchanged = null;
+                unboxedArgs = 0;
+                return;
             }
-            while (true) {
-                try {
-                    return dispatchNode.executeDispatch(frame, funcValue, argValues);
-                } catch (InterpException.TrampolineException e) {
-                    // tailTaken.enter();
-                    funcValue = e.func;
-                    argValues = e.args;
+            longArgsUnchanged = longArgs.unchanged();
+            unboxedArgs = longArgs.mask() & (args.length >= 64 ? -1L : (1L << args.length) - 1);
+        }
+
+        // Allocates a long[] besides the Object[]. When the call is inlined neither escapes; when
+        // it isn't, the long[] replaces one Long per unboxed argument, which costs more than
+        // boxing only for fixnums small enough to come from the Long cache.
+        @ExplodeLoop
+        private Object[] evalArgsUnboxed(VirtualFrame frame) {
+            CompilerAsserts.compilationConstant(args.length);
+            Object[] values = new Object[args.length + 1];
+            long[] unboxed = new long[args.length];
+            for (int i = 0; i < args.length; ++i) {
+                if (i < 64 && (unboxedArgs & (1L << i)) != 0) {
+                    try {
+                        unboxed[i] = args[i].executeLong(frame);
+                    } catch (UnexpectedResultException e) {
+                        CompilerDirectives.transferToInterpreterAndInvalidate();
+                        longArgs.clear(i);
+                        unboxedArgs &= ~(1L << i);
+                        values[i] = e.getResult();
+                    }
+                } else {
+                    values[i] = args[i].executeGeneric(frame);
                 }
             }
+            values[args.length] = unboxed;
+            return values;
         }
 
     }
@@ -0,0 +1,29 @@
+package com.github.overmind.yasir.ast;
+
+// The unboxed calling convention, used by known calls to callees that take it (see
+// RootEntry.takesUnboxedArgs): the arguments the callee has only ever been passed as longs are
+// passed in a long[] appended to the argument array, and their own elements are left null.
+public final class Args {
+    // Not counting the long[], which can't be a value of its own.
+    static int count(Object[] args) {
+        int n = args.length;
+        return n > 0 && args[n - 1] instanceof long[] ? n - 1 : n;
+    }
+
+    static boolean isUnboxed(Object[] args, int ix) {
+        return args[ix] == null;
+    }
+
+    static long[] unboxed(Object[] args) {
+        return (long[]) args[args.length - 1];
+    }
+
+    static long getLong(Object[] args, int ix) {
+        return unboxed(args)[ix];
+    }
+
+    public static Object get(Object[] args, int ix) {
+        Object arg = args[ix];
+        return arg != null ? arg : getLong(args, ix);
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.overmind.yasir.ast;
+
+import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.nodes.Node;
+
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for tuning DispatchClosureNode.INLINE_CACHE_SIZE. Enabled with -Dyasir.callStats=true,
+// and printed when the VM exits. When disabled, the counting code is folded away.
+//
+// A hit is a call through the inline cache, a miss is a new cache entry, and a site goes
+// megamorphic once. Megamorphic calls are also counted per callee, across all sites, to show
+// which functions are worth caching.
+public final class CallSiteStats {
+    public static final boolean ENABLED = Boolean.getBoolean("yasir.callStats");
+
+    // Only the sites that have counted anything, and they don't hold on to their nodes.
+    private static final List<CallSiteStats> sites = new ArrayList<>();
+    private static final Map<CallTarget, LongAdder> megamorphicTargets = new ConcurrentHashMap<>();
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(System.err)));
+        }
+    }
+
+    // Until the site is described, which happens when it first counts: the node isn't adopted
+    // when its stats are made.
+    private final WeakReference<Node> site;
+    private volatile String description;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder megamorphicCalls = new LongAdder();
+    private volatile boolean megamorphic;
+
+    private CallSiteStats(Node site) {
+        this.site = new WeakReference<>(site);
+    }
+
+    static CallSiteStats forSite(Node site) {
+        return new CallSiteStats(site);
+    }
+
+    @TruffleBoundary
+    void hit() {
+        counted();
+        hits.increment();
+    }
+
+    @TruffleBoundary
+    void miss() {
+        counted();
+        misses.increment();
+    }
+
+    @TruffleBoundary
+    void wentMegamorphic() {
+        counted();
+        megamorphic = true;
+    }
+
+    @TruffleBoundary
+    void megamorphicCall(CallTarget target) {
+        counted();
+        megamorphicCalls.increment();
+        megamorphicTargets.computeIfAbsent(target, t -> new LongAdder()).increment();
+    }
+
+    private void counted() {
+        if (description == null) {
+            describe();
+        }
+    }
+
+    private synchronized void describe() {
+        if (description != null) {
+            return;
+        }
+        Node node = site.get();
+        description = node == null ? "<collected site>" : node.getParent() + " in " + node.getRootNode();
+        synchronized (sites) {
+            sites.add(this);
+        }
+    }
+
+    public static void dump(PrintStream out) {
+        out.println("call sites (hits, misses, megamorphic calls):");
+        synchronized (sites) {
+            for (CallSiteStats s : sites) {
+                out.printf("  %s: %d, %d, %d%s%n", s.description, s.hits.sum(), s.misses.sum(),
+                        s.megamorphicCalls.sum(), s.megamorphic ? " (megamorphic)" : "");
+            }
+        }
+        out.println("megamorphic calls by target:");
+        megamorphicTargets.forEach((target, count) -> out.printf("  %s: %d%n", target, count.sum()));
+    }
+}
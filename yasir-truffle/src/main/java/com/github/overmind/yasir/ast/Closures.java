@@ -1,27 +1,94 @@
 package com.github.overmind.yasir.ast;
 
 import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Closure;
+import com.github.overmind.yasir.value.FlatClosure;
+import com.oracle.truffle.api.CompilerAsserts;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.UnexpectedResultException;
 
 public final class Closures {
     public static Expr alloc(BareFunction base, Expr... payloads) {
         return new MkClosure(base, payloads);
     }
 
+    // Closes over the current frame.
+    public static Expr captureFrame(BareFunction base) {
+        return new CaptureFrame(base);
+    }
+
+    // Payloads that have only been longs so far are stored unboxed, which picks the layout.
     static class MkClosure extends Expr {
         private final BareFunction base;
 
         @Children private final Expr[] payloads;
 
+        @CompilationFinal
+        private int longPayloads;
+
         MkClosure(BareFunction base, Expr[] payloads) {
             this.base = base;
             this.payloads = payloads;
+            if (payloads.length <= FlatClosure.MAX_INLINE) {
+                longPayloads = (1 << payloads.length) - 1;
+            }
+        }
+
+        @Override
+        @ExplodeLoop
+        public Object executeGeneric(VirtualFrame frame) {
+            CompilerAsserts.compilationConstant(payloads.length);
+            if (payloads.length == 0) {
+                return new Closure(base);
+            }
+            FlatClosure c = FlatClosure.create(base, payloads.length, longPayloads);
+            for (int i = 0; i < payloads.length; ++i) {
+                if ((longPayloads & (1 << i)) != 0) {
+                    try {
+                        c.setLong(i, payloads[i].executeLong(frame));
+                    } catch (UnexpectedResultException e) {
+                        CompilerDirectives.transferToInterpreterAndInvalidate();
+                        return relayout(frame, c, i, e.getResult());
+                    }
+                } else {
+                    c.set(i, payloads[i].executeGeneric(frame));
+                }
+            }
+            return c;
+        }
+
+        // Payload failed wasn't a long: copies what's been evaluated into a closure with the
+        // new layout, and evaluates the rest boxed in case they aren't longs either.
+        private Closure relayout(VirtualFrame frame, FlatClosure partial, int failed, Object value) {
+            Object[] values = new Object[payloads.length];
+            for (int i = 0; i < payloads.length; ++i) {
+                values[i] = i < failed ? partial.get(i)
+                        : i == failed ? value : payloads[i].executeGeneric(frame);
+                if (!(values[i] instanceof Long)) {
+                    longPayloads &= ~(1 << i);
+                }
+            }
+            FlatClosure c = FlatClosure.create(base, payloads.length, longPayloads);
+            for (int i = 0; i < payloads.length; ++i) {
+                c.set(i, values[i]);
+            }
+            return c;
+        }
+    }
+
+    static class CaptureFrame extends Expr {
+        private final BareFunction base;
+
+        CaptureFrame(BareFunction base) {
+            this.base = base;
         }
 
         @Override
         public Object executeGeneric(VirtualFrame frame) {
-            Object[] payloads = ApplyNode.evalArgs(frame, this.payloads);
-            return base.withPayloads(payloads);
+            return base.withFrame(frame.materialize());
         }
     }
 }
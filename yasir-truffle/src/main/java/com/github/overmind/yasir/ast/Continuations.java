@@ -0,0 +1,68 @@
+package com.github.overmind.yasir.ast;
+
+import com.github.overmind.yasir.Yasir;
+import com.github.overmind.yasir.interp.ContinuationException;
+import com.github.overmind.yasir.value.Arity;
+import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Continuation;
+import com.github.overmind.yasir.value.Nil;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+
+// Escape-only call/cc: invoking the continuation throws a ContinuationException that the
+// call/cc catches. A continuation that is invoked after its call/cc has returned would need
+// the stack that is gone by then. That isn't supported: it raises an error the program can
+// handle, so generators, coroutines and anything else that re-enters a continuation don't
+// work yet.
+public final class Continuations {
+    // The function of every continuation closure.
+    public static final BareFunction RESUME = new BareFunction(
+            Yasir.rt().createCallTarget(RootEntry.create(new Resume())), "resume", new Arity(1, 0, 1, false));
+
+    public static final BareFunction CALL_CC = new BareFunction(
+            Yasir.rt().createCallTarget(RootEntry.create(new CallCC())), "call/cc", Arity.fixed(1));
+
+    private Continuations() {
+    }
+
+    // (k [value]), with k passed first as it is a closure.
+    static final class Resume extends Expr {
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object[] args = frame.getArguments();
+            Continuation k = (Continuation) args[0];
+            if (!k.isLive()) {
+                CompilerDirectives.transferToInterpreter();
+                throw Exceptions.error("continuation invoked after its call/cc returned", k);
+            }
+            throw new ContinuationException(k, args.length > 1 ? args[1] : Nil.INSTANCE);
+        }
+    }
+
+    // (call/cc f)
+    static final class CallCC extends Expr {
+        @Child
+        private DispatchClosureNode dispatchNode = DispatchClosureNodeGen.create();
+
+        @Child
+        private DispatchClosureNode bounceNode = DispatchClosureNodeGen.create();
+
+        private final ConditionProfile isOwn = ConditionProfile.createBinaryProfile();
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Continuation k = new Continuation(RESUME);
+            try {
+                return ApplyNode.callValue(frame, dispatchNode, bounceNode, frame.getArguments()[0], k);
+            } catch (ContinuationException e) {
+                if (isOwn.profile(e.continuation == k)) {
+                    return e.value;
+                }
+                throw e;
+            } finally {
+                k.kill();
+            }
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.github.overmind.yasir.ast;
 
+import com.github.overmind.yasir.value.Arity;
 import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Symbol;
+import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.dsl.Cached;
 import com.oracle.truffle.api.dsl.Specialization;
 import com.oracle.truffle.api.frame.VirtualFrame;
@@ -9,20 +13,31 @@ import com.oracle.truffle.api.nodes.IndirectCallNode;
 import com.oracle.truffle.api.nodes.Node;
 
 public abstract class DispatchClosureNode extends Node {
-    protected static final int INLINE_CACHE_SIZE = 2;
+    // Higher-order code may want more, see CallSiteStats.
+    protected static final int INLINE_CACHE_SIZE = Integer.getInteger("yasir.inlineCacheSize", 2);
+
+    private final CallSiteStats stats = CallSiteStats.ENABLED ? CallSiteStats.forSite(this) : null;
 
     public abstract Object executeDispatch(VirtualFrame frame,
                                            BareFunction function,
                                            Object[] arguments);
 
 
-    // Using an assumption is usually better than using only a equality check, especially
-    // when the closure is a compilation constant.
-    @Specialization(limit = "INLINE_CACHE_SIZE", guards = "function == cachedFunction", assumptions = "cachedFunction.targetNotChanged()")
-    protected static Object doDirect(VirtualFrame frame, BareFunction function, Object[] arguments, //
-                                     @Cached("function") BareFunction cachedFunction, //
-                                     @Cached("create(cachedFunction.target())") DirectCallNode callNode) {
+    // Cache on the call target rather than on the function: every evaluation of a lambda
+    // expression makes a new BareFunction or Closure, but they all share the target. The guard
+    // also covers the target being changed, so no assumption is needed. The arity goes with the
+    // target, and the argument count is a constant of the call site once compiled, so checking
+    // it costs nothing there.
+    @Specialization(limit = "INLINE_CACHE_SIZE", guards = "function.target() == cachedTarget")
+    protected Object doDirect(VirtualFrame frame, BareFunction function, Object[] arguments, //
+                              @Cached("function.target()") CallTarget cachedTarget, //
+                              @Cached("function.arity()") Arity arity, //
+                              @Cached("createDirect(cachedTarget)") DirectCallNode callNode) {
     /* Inline cache hit, we are safe to execute the cached call func. */
+        checkArity(function, arity, arguments);
+        if (CallSiteStats.ENABLED) {
+            stats.hit();
+        }
         return callNode.call(frame, arguments);
     }
 
@@ -32,12 +47,39 @@ public abstract class DispatchClosureNode extends Node {
      * no method inlining is performed.
      */
     @Specialization(contains = "doDirect")
-    protected static Object doIndirect(VirtualFrame frame, BareFunction function, Object[] arguments, //
-                                       @Cached("create()") IndirectCallNode callNode) {
+    protected Object doIndirect(VirtualFrame frame, BareFunction function, Object[] arguments, //
+                                @Cached("createIndirect()") IndirectCallNode callNode) {
     /*
      * SL has a quite simple call lookup: just ask the function for the current call func, and
      * call it.
      */
+        checkArity(function, function.arity(), arguments);
+        if (CallSiteStats.ENABLED) {
+            stats.megamorphicCall(function.target());
+        }
         return callNode.call(frame, function.target(), arguments);
     }
+
+    static void checkArity(BareFunction function, Arity arity, Object[] arguments) {
+        int argc = Args.count(arguments);
+        if (!arity.accepts(argc)) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("wrong number of arguments, expected " + arity,
+                    Symbol.apply(function.name()), (long) (argc - arity.hidden));
+        }
+    }
+
+    protected DirectCallNode createDirect(CallTarget target) {
+        if (CallSiteStats.ENABLED) {
+            stats.miss();
+        }
+        return DirectCallNode.create(target);
+    }
+
+    protected IndirectCallNode createIndirect() {
+        if (CallSiteStats.ENABLED) {
+            stats.wentMegamorphic();
+        }
+        return IndirectCallNode.create();
+    }
 }
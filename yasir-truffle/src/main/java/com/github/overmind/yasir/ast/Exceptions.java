@@ -0,0 +1,303 @@
+package com.github.overmind.yasir.ast;
+
+import com.github.overmind.yasir.Yasir;
+import com.github.overmind.yasir.interp.RaiseException;
+import com.github.overmind.yasir.interp.TailCall;
+import com.github.overmind.yasir.value.Arity;
+import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Closure;
+import com.github.overmind.yasir.value.ErrorObject;
+import com.github.overmind.yasir.value.Nil;
+import com.github.overmind.yasir.value.Pair;
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.VirtualFrame;
+
+// raise, with-exception-handler, guard and dynamic-wind, and error objects.
+//
+// The handlers installed by with-exception-handler form a stack. A guard doesn't go on it,
+// it only counts itself in guardDepth, and each handler remembers the depth it was installed
+// at: if a guard was entered since the innermost handler was installed, the guard is the
+// innermost one, and raise unwinds to it with a RaiseException. Otherwise raise calls the
+// handler in place. The stack and the depth belong to the thread running the program.
+//
+// Until the first with-exception-handler, no handler can be innermost, so guards don't count
+// themselves and raise doesn't look at the stack: a guard is a plain try/catch. Guards that
+// were entered before then don't count themselves on the way out either, which is right, as
+// every handler is installed inside them.
+public final class Exceptions {
+    private static final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    private static final Assumption noHandlers = Yasir.rt().createAssumption("no exception handlers");
+
+    public static final BareFunction RAISE = primitive(new Raise(false), "raise", Arity.fixed(1));
+    public static final BareFunction RAISE_CONTINUABLE = primitive(new Raise(true), "raise-continuable", Arity.fixed(1));
+    public static final BareFunction WITH_EXCEPTION_HANDLER = primitive(new WithExceptionHandler(),
+            "with-exception-handler", Arity.fixed(2));
+    public static final BareFunction DYNAMIC_WIND = primitive(new DynamicWind(), "dynamic-wind", Arity.fixed(3));
+    public static final BareFunction ERROR = primitive(new MakeError(), "error", Arity.atLeast(1));
+    public static final BareFunction IS_ERROR_OBJECT = primitive(new IsErrorObject(), "error-object?", Arity.fixed(1));
+    public static final BareFunction ERROR_OBJECT_MESSAGE = primitive(new ErrorObjectField(true),
+            "error-object-message", Arity.fixed(1));
+    public static final BareFunction ERROR_OBJECT_IRRITANTS = primitive(new ErrorObjectField(false),
+            "error-object-irritants", Arity.fixed(1));
+
+    private Exceptions() {
+    }
+
+    private static BareFunction primitive(Expr body, String name, Arity arity) {
+        return new BareFunction(Yasir.rt().createCallTarget(RootEntry.create(body)), name, arity);
+    }
+
+    // Evaluates body; if it raises, binds what was raised to raisedSlot, and whether it was
+    // raised with raise-continuable to continuableSlot, and evaluates the handler, which is
+    // the guard's clauses and raises it again the same way if none of them apply.
+    public static Expr guard(Expr body, FrameSlot raisedSlot, FrameSlot continuableSlot, Expr handler) {
+        return new Guard(body, raisedSlot, continuableSlot, handler);
+    }
+
+    // For the errors that primitives find: raises an error object, as (error message irritant ...)
+    // would, and returns what to throw once no handler has escaped. So use it as
+    // throw Exceptions.error(...).
+    @TruffleBoundary
+    public static RaiseException error(String message, Object... irritants) {
+        return raise(ErrorObject.create(message, irritants));
+    }
+
+    // A non-continuable raise from outside a Raise node.
+    @TruffleBoundary
+    private static RaiseException raise(Object raised) {
+        if (noHandlers.isValid()) {
+            return new RaiseException(raised, false);
+        }
+        State s = state.get();
+        Handler h = s.current;
+        if (h == null || h.guardDepth != s.guardDepth) {
+            return new RaiseException(raised, false);
+        }
+        s.current = h.prev;
+        try {
+            callSlowly(h.handler, raised);
+            return error("exception handler returned from raise", raised);
+        } finally {
+            s.current = h;
+        }
+    }
+
+    // A call without a call node, for the handlers called by error.
+    private static Object callSlowly(Object func, Object arg) {
+        BareFunction function;
+        Object[] args;
+        if (func instanceof Closure) {
+            function = ((Closure) func).bareFunction;
+            args = new Object[]{func, arg};
+        } else {
+            function = (BareFunction) func;
+            args = new Object[]{arg};
+        }
+        while (true) {
+            DispatchClosureNode.checkArity(function, function.arity(), args);
+            Object res = function.target().call(args);
+            if (!(res instanceof TailCall)) {
+                return res;
+            }
+            function = ((TailCall) res).func;
+            args = ((TailCall) res).args;
+        }
+    }
+
+    private static final class State {
+        Handler current;
+        int guardDepth;
+    }
+
+    private static final class Handler {
+        final Object handler;
+        final Handler prev;
+        final int guardDepth;
+
+        Handler(Object handler, Handler prev, int guardDepth) {
+            this.handler = handler;
+            this.prev = prev;
+            this.guardDepth = guardDepth;
+        }
+    }
+
+    static final class Guard extends Expr {
+        @Child
+        private Expr body;
+        private final FrameSlot raisedSlot;
+        private final FrameSlot continuableSlot;
+        @Child
+        private Expr handler;
+
+        Guard(Expr body, FrameSlot raisedSlot, FrameSlot continuableSlot, Expr handler) {
+            this.body = body;
+            this.raisedSlot = raisedSlot;
+            this.continuableSlot = continuableSlot;
+            this.handler = handler;
+        }
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            RaiseException raised;
+            if (noHandlers.isValid()) {
+                try {
+                    return body.executeGeneric(frame);
+                } catch (RaiseException e) {
+                    raised = e;
+                }
+            } else {
+                State s = state.get();
+                s.guardDepth += 1;
+                try {
+                    return body.executeGeneric(frame);
+                } catch (RaiseException e) {
+                    raised = e;
+                } finally {
+                    s.guardDepth -= 1;
+                }
+            }
+            frame.setObject(raisedSlot, raised.payload);
+            frame.setObject(continuableSlot, raised.continuable);
+            return handler.executeGeneric(frame);
+        }
+    }
+
+    // (raise obj) and (raise-continuable obj)
+    static final class Raise extends Expr {
+        private final boolean continuable;
+
+        @Child
+        private DispatchClosureNode dispatchNode = DispatchClosureNodeGen.create();
+        @Child
+        private DispatchClosureNode bounceNode = DispatchClosureNodeGen.create();
+
+        Raise(boolean continuable) {
+            this.continuable = continuable;
+        }
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object raised = frame.getArguments()[0];
+            if (noHandlers.isValid()) {
+                throw new RaiseException(raised, continuable);
+            }
+            State s = state.get();
+            Handler h = s.current;
+            if (h == null || h.guardDepth != s.guardDepth) {
+                throw new RaiseException(raised, continuable);
+            }
+            // The handler runs with the outer handlers installed, and so does the secondary
+            // raise if it returns from a non-continuable one.
+            s.current = h.prev;
+            try {
+                Object res = ApplyNode.callValue(frame, dispatchNode, bounceNode, h.handler, raised);
+                if (!continuable) {
+                    CompilerDirectives.transferToInterpreter();
+                    throw error("exception handler returned from raise", raised);
+                }
+                return res;
+            } finally {
+                s.current = h;
+            }
+        }
+    }
+
+    // (with-exception-handler handler thunk)
+    static final class WithExceptionHandler extends Expr {
+        @Child
+        private DispatchClosureNode dispatchNode = DispatchClosureNodeGen.create();
+        @Child
+        private DispatchClosureNode bounceNode = DispatchClosureNodeGen.create();
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object[] args = frame.getArguments();
+            if (noHandlers.isValid()) {
+                CompilerDirectives.transferToInterpreter();
+                noHandlers.invalidate();
+            }
+            State s = state.get();
+            Handler saved = s.current;
+            s.current = new Handler(args[0], saved, s.guardDepth);
+            try {
+                return ApplyNode.callValue(frame, dispatchNode, bounceNode, args[1]);
+            } finally {
+                s.current = saved;
+            }
+        }
+    }
+
+    // (dynamic-wind before thunk after). after also runs when thunk is escaped from by raise
+    // or a continuation.
+    static final class DynamicWind extends Expr {
+        @Child
+        private DispatchClosureNode beforeNode = DispatchClosureNodeGen.create();
+        @Child
+        private DispatchClosureNode thunkNode = DispatchClosureNodeGen.create();
+        @Child
+        private DispatchClosureNode afterNode = DispatchClosureNodeGen.create();
+        @Child
+        private DispatchClosureNode bounceNode = DispatchClosureNodeGen.create();
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object[] args = frame.getArguments();
+            ApplyNode.callValue(frame, beforeNode, bounceNode, args[0]);
+            Object res;
+            boolean escaped = true;
+            try {
+                res = ApplyNode.callValue(frame, thunkNode, bounceNode, args[1]);
+                escaped = false;
+            } finally {
+                if (escaped) {
+                    ApplyNode.callValue(frame, afterNode, bounceNode, args[2]);
+                }
+            }
+            ApplyNode.callValue(frame, afterNode, bounceNode, args[2]);
+            return res;
+        }
+    }
+
+    // (error message irritant ...)
+    static final class MakeError extends Expr {
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object[] args = frame.getArguments();
+            Object irritants = Nil.INSTANCE;
+            for (int i = Args.count(args) - 1; i >= 1; --i) {
+                irritants = Pair.create(Args.get(args, i), irritants);
+            }
+            throw raise(new ErrorObject(args[0], irritants));
+        }
+    }
+
+    static final class IsErrorObject extends Expr {
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            return frame.getArguments()[0] instanceof ErrorObject;
+        }
+    }
+
+    // error-object-message and error-object-irritants
+    static final class ErrorObjectField extends Expr {
+        private final boolean message;
+
+        ErrorObjectField(boolean message) {
+            this.message = message;
+        }
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object obj = frame.getArguments()[0];
+            if (!(obj instanceof ErrorObject)) {
+                CompilerDirectives.transferToInterpreter();
+                throw error("not an error object", obj);
+            }
+            return message ? ((ErrorObject) obj).message : ((ErrorObject) obj).irritants;
+        }
+    }
+}
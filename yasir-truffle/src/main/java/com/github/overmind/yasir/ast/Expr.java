@@ -19,6 +19,10 @@ public abstract class Expr extends Node {
         return YasirTypesGen.expectLong(executeGeneric(frame));
     }
 
+    public double executeDouble(VirtualFrame frame) throws UnexpectedResultException {
+        return YasirTypesGen.expectDouble(executeGeneric(frame));
+    }
+
     public boolean executeBoolean(VirtualFrame frame) throws UnexpectedResultException {
         return YasirTypesGen.expectBoolean(executeGeneric(frame));
     }
@@ -0,0 +1,189 @@
+package com.github.overmind.yasir.ast;
+
+import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Global;
+import com.github.overmind.yasir.value.Nil;
+import com.github.overmind.yasir.value.Symbol;
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.NodeUtil;
+import com.oracle.truffle.api.nodes.UnexpectedResultException;
+
+// Reads and writes of global cells (see Global).
+public final class Globals {
+    private Globals() {
+    }
+
+    public static Expr read(Global cell) {
+        return new Read(cell);
+    }
+
+    // (define name value) at the top level: binds the cell whether or not it was bound.
+    public static Expr define(Global cell, Expr value) {
+        return new Write(cell, value, true);
+    }
+
+    // (set! name value)
+    public static Expr set(Global cell, Expr value) {
+        return new Write(cell, value, false);
+    }
+
+    // A call through cell, which is bound to primitive, run as the primitive's own node (see
+    // PrimOp.inline) made from args. If the cell is assigned something else, the call is
+    // replaced by the generic one, on copies of args.
+    public static Expr callPrimitive(Global cell, BareFunction primitive, Expr inlined, Expr[] args, boolean tail) {
+        return new PrimitiveCall(cell, primitive, inlined, args, tail);
+    }
+
+    // While the cell is stable, the value seen last is a compilation constant guarded by the
+    // cell's assumption. Once the assumption breaks, the node watches the new one, unless the
+    // cell has stopped being stable.
+    static final class Read extends Expr {
+        private final Global cell;
+
+        @CompilationFinal
+        private Assumption unchanged;
+
+        @CompilationFinal
+        private Object cachedValue;
+
+        Read(Global cell) {
+            this.cell = cell;
+            watch();
+        }
+
+        @Override
+        public String toString() {
+            return "#<ReadGlobal " + cell.name + ">";
+        }
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Assumption a = unchanged;
+            if (a != null) {
+                if (a.isValid()) {
+                    return checkBound(cachedValue);
+                }
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                watch();
+            }
+            return checkBound(cell.value());
+        }
+
+        private void watch() {
+            if (cell.isStable()) {
+                unchanged = cell.assumption();
+                cachedValue = cell.value();
+            } else {
+                unchanged = null;
+                cachedValue = null;
+            }
+        }
+
+        private Object checkBound(Object value) {
+            if (value == null) {
+                CompilerDirectives.transferToInterpreter();
+                throw Exceptions.error("unbound variable", Symbol.apply(cell.name));
+            }
+            return value;
+        }
+    }
+
+    static final class Write extends Expr {
+        private final Global cell;
+        private final boolean define;
+
+        @Child
+        private Expr value;
+
+        Write(Global cell, Expr value, boolean define) {
+            this.cell = cell;
+            this.value = value;
+            this.define = define;
+        }
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object newValue = value.executeGeneric(frame);
+            if (!define && !cell.isBound()) {
+                CompilerDirectives.transferToInterpreter();
+                throw Exceptions.error("set! of an unbound variable", Symbol.apply(cell.name));
+            }
+            cell.setValue(newValue);
+            return Nil.INSTANCE;
+        }
+    }
+
+    static final class PrimitiveCall extends Expr {
+        private final Global cell;
+        private final BareFunction primitive;
+        // The argument nodes, which inlined is the parent of.
+        private final Expr[] args;
+        private final boolean tail;
+
+        @Child
+        private Expr inlined;
+
+        @CompilationFinal
+        private Assumption unchanged;
+
+        PrimitiveCall(Global cell, BareFunction primitive, Expr inlined, Expr[] args, boolean tail) {
+            this.cell = cell;
+            this.primitive = primitive;
+            this.inlined = inlined;
+            this.args = args;
+            this.tail = tail;
+            unchanged = cell.assumption();
+        }
+
+        @Override
+        public String toString() {
+            return "#<PrimitiveCall " + cell.name + ">";
+        }
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            if (!unchanged.isValid()) {
+                return rebind().executeGeneric(frame);
+            }
+            return inlined.executeGeneric(frame);
+        }
+
+        @Override
+        public long executeLong(VirtualFrame frame) throws UnexpectedResultException {
+            if (!unchanged.isValid()) {
+                return rebind().executeLong(frame);
+            }
+            return inlined.executeLong(frame);
+        }
+
+        @Override
+        public boolean executeBoolean(VirtualFrame frame) throws UnexpectedResultException {
+            if (!unchanged.isValid()) {
+                return rebind().executeBoolean(frame);
+            }
+            return inlined.executeBoolean(frame);
+        }
+
+        // Keeps the primitive if the cell has been assigned it back by now.
+        private Expr rebind() {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            if (cell.isStable() && cell.value() == primitive) {
+                unchanged = cell.assumption();
+                return inlined;
+            }
+            return replace(generic());
+        }
+
+        private Expr generic() {
+            Expr[] copies = new Expr[args.length];
+            for (int i = 0; i < args.length; ++i) {
+                copies[i] = (Expr) NodeUtil.cloneNode(args[i]);
+            }
+            Expr func = Globals.read(cell);
+            return tail ? ApplyNode.unknownTail(func, copies) : ApplyNode.unknown(func, copies);
+        }
+    }
+}
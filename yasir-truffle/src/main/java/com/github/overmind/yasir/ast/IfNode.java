@@ -1,11 +1,20 @@
 package com.github.overmind.yasir.ast;
 
-import com.oracle.truffle.api.dsl.UnsupportedSpecializationException;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.nodes.UnexpectedResultException;
 import com.oracle.truffle.api.profiles.ConditionProfile;
 
+// Anything but #f is true. Conditions are expected to be booleans and are executed as such,
+// until one turns out not to be: from then on the condition is executed generically and
+// compared against #f.
 public final class IfNode extends Expr {
+    // A binary profile only tells the compiler whether a branch was ever taken, which is no help
+    // for branches that go both ways all the time, like fibonacci's base case test. A counting
+    // profile also gives it the probabilities, at the cost of counting in the interpreter.
+    private static final boolean COUNTING_PROFILES = Boolean.getBoolean("yasir.countingBranchProfiles");
+
     @Child
     private Expr cond;
     @Child
@@ -13,27 +22,45 @@ public final class IfNode extends Expr {
     @Child
     private Expr onFalse;
 
-    private final ConditionProfile profile = ConditionProfile.createBinaryProfile();
+    @CompilationFinal
+    private boolean condNotBoolean;
+
+    private final ConditionProfile profile;
 
     public IfNode(Expr cond, Expr onTrue, Expr onFalse) {
+        this(cond, onTrue, onFalse, COUNTING_PROFILES);
+    }
+
+    public IfNode(Expr cond, Expr onTrue, Expr onFalse, boolean countingProfile) {
         this.cond = cond;
         this.onTrue = onTrue;
         this.onFalse = onFalse;
+        profile = countingProfile ? ConditionProfile.createCountingProfile() : ConditionProfile.createBinaryProfile();
     }
 
     @Override
     public Object executeGeneric(VirtualFrame frame) {
-        // Binary profiles are not good for things like fibonacci: predicting the
-        // branch is useless in this case.
-        // However it will be pretty useful in other cases...
+        if (profile.profile(executeCondition(frame))) {
+            return onTrue.executeGeneric(frame);
+        } else {
+            return onFalse.executeGeneric(frame);
+        }
+    }
+
+    private boolean executeCondition(VirtualFrame frame) {
+        if (condNotBoolean) {
+            return isTrue(cond.executeGeneric(frame));
+        }
         try {
-            if (profile.profile(cond.executeBoolean(frame))) {
-                return onTrue.executeGeneric(frame);
-            } else {
-                return onFalse.executeGeneric(frame);
-            }
+            return cond.executeBoolean(frame);
         } catch (UnexpectedResultException e) {
-            throw new RuntimeException(e);
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            condNotBoolean = true;
+            return isTrue(e.getResult());
         }
     }
+
+    private static boolean isTrue(Object value) {
+        return !(value instanceof Boolean) || (boolean) value;
+    }
 }
@@ -0,0 +1,22 @@
+package com.github.overmind.yasir.ast;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.frame.VirtualFrame;
+
+import java.util.function.Supplier;
+
+// Builds the actual node on its first execution, so that functions that are never called
+// are never turned into Truffle nodes.
+public final class LazyExpr extends Expr {
+    private final Supplier<Expr> builder;
+
+    public LazyExpr(Supplier<Expr> builder) {
+        this.builder = builder;
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        return replace(builder.get()).executeGeneric(frame);
+    }
+}
@@ -1,14 +1,25 @@
 package com.github.overmind.yasir.ast;
 
 import com.github.overmind.yasir.Yasir;
+import com.github.overmind.yasir.interp.TailCall;
 import com.github.overmind.yasir.value.BareFunction;
 import com.github.overmind.yasir.value.Box;
+import com.github.overmind.yasir.value.Closure;
+import com.github.overmind.yasir.value.Nil;
+import com.github.overmind.yasir.value.Pair;
 import com.oracle.truffle.api.CompilerAsserts;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.RootCallTarget;
 import com.oracle.truffle.api.frame.FrameDescriptor;
 import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.MaterializedFrame;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+import com.oracle.truffle.api.profiles.ConditionProfile;
 
 final public class MkLambda {
     public static Expr create(String name, FrameSlot[] argNames,
@@ -16,6 +27,17 @@ final public class MkLambda {
         return new Info(name, fd, body, argNames, localNames);
     }
 
+    // A body whose frame may be captured by a closure can't run self tail calls in the same frame.
+    // restSlot, if not null, gets the arguments after those of argNames as a list.
+    public static RootCallTarget target(String name, FrameSlot[] argNames, FrameSlot restSlot, FrameSlot[] localNames,
+                                        Expr body, FrameDescriptor fd, boolean frameCaptured) {
+        BodyWrapper bodyWrapper = new BodyWrapper(name, body, argNames, restSlot, localNames,
+                frameCaptured ? null : fd.findOrAddFrameSlot("<tail-call>"));
+        RootCallTarget target = Yasir.rt().createCallTarget(RootEntry.createTakingUnboxedArgs(bodyWrapper, fd));
+        bodyWrapper.self = target;
+        return target;
+    }
+
     public static final class Info extends Expr {
         public final String name;
 
@@ -26,8 +48,8 @@ final public class MkLambda {
         public Info(String name, FrameDescriptor fd, Expr body,
                     FrameSlot[] argNames, FrameSlot[] localNames) {
             this.name = name;
-            BodyWrapper bodyWrapper = new BodyWrapper(name, body, argNames, localNames);
-            target = Yasir.rt().createCallTarget(RootEntry.create(bodyWrapper, fd));
+            // We don't know what the body does with its frame.
+            target = MkLambda.target(name, argNames, null, localNames, body, fd, true);
         }
 
         @Override
@@ -41,19 +63,38 @@ final public class MkLambda {
         }
     }
 
+    // A tail call back into the same function is run as a loop here instead of bouncing
+    // through the caller, so that it can be OSR-compiled.
     static class BodyWrapper extends Expr {
         private final String name;
         @Child
         protected Expr body;
 
         private final FrameSlot[] argNames;
+        private final FrameSlot restSlot;
         private final FrameSlot[] localNames;
+        // Null if self tail calls have to bounce through the caller.
+        private final FrameSlot tailCallSlot;
 
-        protected BodyWrapper(String name, Expr body, FrameSlot[] argNames, FrameSlot[] localNames) {
+        @CompilationFinal
+        private RootCallTarget self;
+
+        @Child
+        private LoopNode selfLoop;
+
+        private final ConditionProfile selfCalled = ConditionProfile.createBinaryProfile();
+
+        protected BodyWrapper(String name, Expr body, FrameSlot[] argNames, FrameSlot restSlot,
+                              FrameSlot[] localNames, FrameSlot tailCallSlot) {
             this.name = name;
             this.body = body;
             this.argNames = argNames;
+            this.restSlot = restSlot;
             this.localNames = localNames;
+            this.tailCallSlot = tailCallSlot;
+            if (tailCallSlot != null) {
+                selfLoop = Yasir.rt().createLoopNode(new SelfTailCallNode());
+            }
         }
 
         @Override
@@ -62,19 +103,78 @@ final public class MkLambda {
         }
 
         @Override
-        @ExplodeLoop
         public Object executeGeneric(VirtualFrame frame) {
+            Object res = enter(frame, frame.getArguments());
+            if (tailCallSlot != null && selfCalled.profile(isSelfCall(frame, res))) {
+                frame.setObject(tailCallSlot, res);
+                selfLoop.executeLoop(frame);
+                res = frame.getValue(tailCallSlot);
+            }
+            return res;
+        }
+
+        @ExplodeLoop
+        private Object enter(VirtualFrame frame, Object[] args) {
             CompilerAsserts.compilationConstant(argNames.length);
             CompilerAsserts.compilationConstant(localNames.length);
 
-            Object[] args = frame.getArguments();
             for (int i = 0; i < argNames.length; ++i) {
-                frame.setObject(argNames[i], args[i]);
+                Object arg = args[i];
+                if (arg == null) {
+                    frame.setLong(argNames[i], Args.getLong(args, i));
+                } else if (arg instanceof Long) {
+                    frame.setLong(argNames[i], (long) arg);
+                } else if (arg instanceof Boolean) {
+                    frame.setBoolean(argNames[i], (boolean) arg);
+                } else {
+                    frame.setObject(argNames[i], arg);
+                }
+            }
+            if (restSlot != null) {
+                frame.setObject(restSlot, restList(args, argNames.length));
             }
             for (int i = 0; i < localNames.length; ++i) {
                 frame.setObject(localNames[i], Box.create());
             }
             return body.executeGeneric(frame);
         }
+
+        private static Object restList(Object[] args, int from) {
+            Object list = Nil.INSTANCE;
+            for (int i = Args.count(args) - 1; i >= from; --i) {
+                list = Pair.create(Args.get(args, i), list);
+            }
+            return list;
+        }
+
+        // The environment argument can't be rebound (nonlocal reads find it through the frame's
+        // arguments), so a call to the same function with another environment still bounces.
+        // So does one with the wrong number of arguments, for the caller to report it.
+        private boolean isSelfCall(VirtualFrame frame, Object res) {
+            if (!(res instanceof TailCall)) {
+                return false;
+            }
+            TailCall tc = (TailCall) res;
+            if (tc.func.target() != self) {
+                return false;
+            }
+            int argc = Args.count(tc.args);
+            if (restSlot == null ? argc != argNames.length : argc < argNames.length) {
+                return false;
+            }
+            Object[] args = frame.getArguments();
+            Object env = args.length == 0 ? null : args[0];
+            return !(env instanceof Closure || env instanceof MaterializedFrame) || tc.args[0] == env;
+        }
+
+        private final class SelfTailCallNode extends Node implements RepeatingNode {
+            @Override
+            public boolean executeRepeating(VirtualFrame frame) {
+                TailCall tc = (TailCall) FrameUtil.getObjectSafe(frame, tailCallSlot);
+                Object res = enter(frame, tc.args);
+                frame.setObject(tailCallSlot, res);
+                return isSelfCall(frame, res);
+            }
+        }
     }
 }
@@ -1,12 +1,23 @@
 package com.github.overmind.yasir.ast;
 
 import com.github.overmind.yasir.Yasir;
+import com.github.overmind.yasir.interp.RaiseException;
+import com.github.overmind.yasir.value.Arity;
 import com.github.overmind.yasir.value.BareFunction;
 import com.github.overmind.yasir.value.Box;
 import com.github.overmind.yasir.value.Closure;
+import com.github.overmind.yasir.value.Equality;
+import com.github.overmind.yasir.value.FlatClosure;
+import com.github.overmind.yasir.value.HashTable;
 import com.github.overmind.yasir.value.Nil;
+import com.github.overmind.yasir.value.Numbers;
+import com.github.overmind.yasir.value.Pair;
+import com.github.overmind.yasir.value.SchemeString;
+import com.github.overmind.yasir.value.Symbol;
+import com.github.overmind.yasir.value.Vector;
 import com.oracle.truffle.api.CompilerAsserts;
 import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.dsl.*;
 import com.oracle.truffle.api.frame.FrameDescriptor;
 import com.oracle.truffle.api.frame.FrameSlot;
@@ -15,7 +26,10 @@ import com.oracle.truffle.api.nodes.LoopNode;
 import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.api.nodes.RepeatingNode;
 import com.oracle.truffle.api.nodes.RootNode;
-import com.oracle.truffle.api.source.SourceSection;
+
+import java.math.BigInteger;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 public final class PrimOp {
     public static Expr add(Expr lhs, Expr rhs) {
@@ -47,36 +61,141 @@ public final class PrimOp {
     }
 
     public static Expr callAdd(Expr lhs, Expr rhs) {
-        return makeBinaryCall(PrimOpFactory.AddFactory.getInstance(), lhs, rhs);
+        return makeBinaryCall("+", PrimOpFactory.AddFactory.getInstance(), lhs, rhs);
     }
 
     public static Expr callSub(Expr lhs, Expr rhs) {
-        return makeBinaryCall(PrimOpFactory.SubFactory.getInstance(), lhs, rhs);
+        return makeBinaryCall("-", PrimOpFactory.SubFactory.getInstance(), lhs, rhs);
     }
 
     public static Expr callLt(Expr lhs, Expr rhs) {
-        return makeBinaryCall(PrimOpFactory.LtFactory.getInstance(), lhs, rhs);
+        return makeBinaryCall("<", PrimOpFactory.LtFactory.getInstance(), lhs, rhs);
     }
 
-    public final static BareFunction ADD = makeBinaryClosure(PrimOpFactory.AddFactory.getInstance());
-    public final static BareFunction SUB = makeBinaryClosure(PrimOpFactory.SubFactory.getInstance());
-    public final static BareFunction LT = makeBinaryClosure(PrimOpFactory.LtFactory.getInstance());
+    // The node factories of the primitives made by the make*Closure methods, see inline.
+    private static final Map<BareFunction, NodeFactory<? extends Expr>> factories = new IdentityHashMap<>();
 
-    public static BareFunction makeBinaryClosure(NodeFactory<? extends Expr> factory) {
-        RootNode root = new RootNode(Yasir.getLanguageClass(), SourceSection.createUnavailable("builtin", null), null) {
-            @Child
-            private Expr body = factory.createNode(ReadArgNodeGen.create(0), ReadArgNodeGen.create(1));
-            @Override
-            public Object execute(VirtualFrame frame) {
-                Object[] args = frame.getArguments();
-                return body.executeGeneric(frame);
-            }
-        };
-        return new BareFunction(Yasir.rt().createCallTarget(root), factory.getNodeClass().getName());
+    public final static BareFunction ADD = makeBinaryClosure("+", PrimOpFactory.AddFactory.getInstance());
+    public final static BareFunction SUB = makeBinaryClosure("-", PrimOpFactory.SubFactory.getInstance());
+    public final static BareFunction LT = makeBinaryClosure("<", PrimOpFactory.LtFactory.getInstance());
+    public final static BareFunction LONG_EQ = makeBinaryClosure("long=", PrimOpFactory.LongEqFactory.getInstance());
+    public final static BareFunction MUL = makeBinaryClosure("*", PrimOpFactory.MulFactory.getInstance());
+    public final static BareFunction QUOTIENT = makeBinaryClosure("quotient",
+            PrimOpFactory.QuotientFactory.getInstance());
+    public final static BareFunction REMAINDER = makeBinaryClosure("remainder",
+            PrimOpFactory.RemainderFactory.getInstance());
+    public final static BareFunction MODULO = makeBinaryClosure("modulo", PrimOpFactory.ModuloFactory.getInstance());
+    public final static BareFunction NUM_EQ = makeBinaryClosure("=", PrimOpFactory.NumEqFactory.getInstance());
+    public final static BareFunction LE = makeBinaryClosure("<=", PrimOpFactory.LeFactory.getInstance());
+    public final static BareFunction GT = makeBinaryClosure(">", PrimOpFactory.GtFactory.getInstance());
+    public final static BareFunction GE = makeBinaryClosure(">=", PrimOpFactory.GeFactory.getInstance());
+    public final static BareFunction MIN = makeBinaryClosure("min", PrimOpFactory.MinFactory.getInstance());
+    public final static BareFunction MAX = makeBinaryClosure("max", PrimOpFactory.MaxFactory.getInstance());
+    public final static BareFunction ABS = makeUnaryClosure("abs", PrimOpFactory.AbsFactory.getInstance());
+    public final static BareFunction EXACT_TO_INEXACT = makeUnaryClosure("exact->inexact",
+            PrimOpFactory.ExactToInexactFactory.getInstance());
+    public final static BareFunction BIT_AND = makeBinaryClosure("bitwise-and",
+            PrimOpFactory.BitAndFactory.getInstance());
+    public final static BareFunction BIT_OR = makeBinaryClosure("bitwise-ior",
+            PrimOpFactory.BitOrFactory.getInstance());
+    public final static BareFunction BIT_XOR = makeBinaryClosure("bitwise-xor",
+            PrimOpFactory.BitXorFactory.getInstance());
+    public final static BareFunction BIT_NOT = makeUnaryClosure("bitwise-not",
+            PrimOpFactory.BitNotFactory.getInstance());
+    public final static BareFunction ARITHMETIC_SHIFT = makeBinaryClosure("arithmetic-shift",
+            PrimOpFactory.ArithmeticShiftFactory.getInstance());
+    public final static BareFunction CONS = makeBinaryClosure("cons", PrimOpFactory.ConsFactory.getInstance());
+    public final static BareFunction CAR = makeUnaryClosure("car", PrimOpFactory.CarFactory.getInstance());
+    public final static BareFunction CDR = makeUnaryClosure("cdr", PrimOpFactory.CdrFactory.getInstance());
+    public final static BareFunction IS_NULL = makeUnaryClosure("null?", PrimOpFactory.IsNullFactory.getInstance());
+    public final static BareFunction IS_PAIR = makeUnaryClosure("pair?", PrimOpFactory.IsPairFactory.getInstance());
+    public final static BareFunction LENGTH = makeUnaryClosure("length", PrimOpFactory.LengthFactory.getInstance());
+    public final static BareFunction REVERSE = makeUnaryClosure("reverse", PrimOpFactory.ReverseFactory.getInstance());
+    public final static BareFunction EQ = makeBinaryClosure("eq?", PrimOpFactory.EqFactory.getInstance());
+    public final static BareFunction SYMBOL_TO_STRING = makeUnaryClosure("symbol->string",
+            PrimOpFactory.SymbolToStringFactory.getInstance());
+    public final static BareFunction MAKE_STRING = new BareFunction(
+            Yasir.rt().createCallTarget(RootEntry.create(new MakeString())), "make-string", Arity.between(1, 2));
+    public final static BareFunction STRING_LENGTH = makeUnaryClosure("string-length",
+            PrimOpFactory.StringLengthFactory.getInstance());
+    public final static BareFunction STRING_REF = makeBinaryClosure("string-ref",
+            PrimOpFactory.StringRefFactory.getInstance());
+    public final static BareFunction STRING_SET = makeTernaryClosure("string-set!",
+            PrimOpFactory.StringSetFactory.getInstance());
+    public final static BareFunction SUBSTRING = makeTernaryClosure("substring",
+            PrimOpFactory.SubstringFactory.getInstance());
+    public final static BareFunction STRING_TO_SYMBOL = makeUnaryClosure("string->symbol",
+            PrimOpFactory.StringToSymbolFactory.getInstance());
+    public final static BareFunction EQV = makeBinaryClosure("eqv?", PrimOpFactory.EqvFactory.getInstance());
+    public final static BareFunction EQUAL = makeBinaryClosure("equal?", PrimOpFactory.EqualFactory.getInstance());
+    public final static BareFunction MAKE_HASH_TABLE = new BareFunction(
+            Yasir.rt().createCallTarget(RootEntry.create(new MakeHashTable())), "make-hash-table",
+            Arity.between(0, 1));
+    public final static BareFunction HASH_TABLE_REF = new BareFunction(
+            Yasir.rt().createCallTarget(RootEntry.createTakingUnboxedArgs(new HashTableRef(), null)), "hash-table-ref",
+            Arity.fixed(2));
+    public final static BareFunction HASH_TABLE_REF_DEFAULT = new BareFunction(
+            Yasir.rt().createCallTarget(RootEntry.createTakingUnboxedArgs(new HashTableRefDefault(), null)),
+            "hash-table-ref/default", Arity.fixed(3));
+    public final static BareFunction HASH_TABLE_SET = makeTernaryClosure("hash-table-set!",
+            PrimOpFactory.HashTableSetFactory.getInstance());
+    public final static BareFunction MAKE_VECTOR = new BareFunction(
+            Yasir.rt().createCallTarget(RootEntry.create(new MakeVector())), "make-vector", Arity.between(1, 2));
+    public final static BareFunction VECTOR = new BareFunction(
+            Yasir.rt().createCallTarget(RootEntry.create(new VectorOf())), "vector", Arity.atLeast(0));
+    public final static BareFunction VECTOR_LENGTH = makeUnaryClosure("vector-length",
+            PrimOpFactory.VectorLengthFactory.getInstance());
+    public final static BareFunction VECTOR_REF = makeBinaryClosure("vector-ref",
+            PrimOpFactory.VectorRefFactory.getInstance());
+    public final static BareFunction VECTOR_SET = makeTernaryClosure("vector-set!",
+            PrimOpFactory.VectorSetFactory.getInstance());
+
+    public static BareFunction makeBinaryClosure(String name, NodeFactory<? extends Expr> factory) {
+        RootNode root = RootEntry.createTakingUnboxedArgs(
+                factory.createNode(ReadArgNodeGen.create(0), ReadArgNodeGen.create(1)), null);
+        return primitive(new BareFunction(Yasir.rt().createCallTarget(root), name,
+                Arity.fixed(2)), factory);
+    }
+
+    public static BareFunction makeUnaryClosure(String name, NodeFactory<? extends Expr> factory) {
+        RootNode root = RootEntry.createTakingUnboxedArgs(factory.createNode(ReadArgNodeGen.create(0)), null);
+        return primitive(new BareFunction(Yasir.rt().createCallTarget(root), name,
+                Arity.fixed(1)), factory);
+    }
+
+    public static BareFunction makeTernaryClosure(String name, NodeFactory<? extends Expr> factory) {
+        RootNode root = RootEntry.createTakingUnboxedArgs(factory.createNode(
+                ReadArgNodeGen.create(0), ReadArgNodeGen.create(1), ReadArgNodeGen.create(2)), null);
+        return primitive(new BareFunction(Yasir.rt().createCallTarget(root), name,
+                Arity.fixed(3)), factory);
+    }
+
+    private static BareFunction primitive(BareFunction function, NodeFactory<? extends Expr> factory) {
+        synchronized (factories) {
+            factories.put(function, factory);
+        }
+        return function;
+    }
+
+    // The node that a call of the primitive function with these arguments runs, so that the call
+    // can be made in place. Null if function isn't a primitive or doesn't take that many arguments.
+    public static Expr inline(BareFunction function, Expr... args) {
+        Variadic variadic = Variadic.of(function);
+        if (variadic != null) {
+            return variadic.expand(args);
+        }
+        NodeFactory<? extends Expr> factory;
+        synchronized (factories) {
+            factory = factories.get(function);
+        }
+        if (factory == null || factory.getExecutionSignature().size() != args.length) {
+            return null;
+        }
+        return factory.createNode((Object[]) args);
     }
 
-    static Expr makeBinaryCall(NodeFactory<? extends Expr> factory, Expr lhs, Expr rhs) {
-        return ApplyNode.known(makeBinaryClosure(factory), lhs, rhs);
+    static Expr makeBinaryCall(String name, NodeFactory<? extends Expr> factory, Expr lhs, Expr rhs) {
+        return ApplyNode.known(makeBinaryClosure(name, factory), lhs, rhs);
     }
 
     public static Expr box(Expr v) {
@@ -203,14 +322,30 @@ public final class PrimOp {
         }
     }
 
+    // Caches the closure's layout class, which tells whether the payload is unboxed and makes
+    // the accessor a direct call.
     @NodeChild("closure")
     @NodeField(name = "ix", type = int.class)
     static abstract class ReadClosurePayload extends Expr {
         abstract int getIx();
 
-        @Specialization
-        protected Object read(Closure c) {
-            return c.payloadsAsArray()[getIx()];
+        @Specialization(guards = {"c.getClass() == layout", "unboxed"}, limit = "3")
+        protected long readLong(FlatClosure c,
+                                @Cached("c.getClass()") Class<? extends FlatClosure> layout,
+                                @Cached("c.isLong(getIx())") boolean unboxed) {
+            return layout.cast(c).getLong(getIx());
+        }
+
+        @Specialization(guards = {"c.getClass() == layout", "!unboxed"}, limit = "3")
+        protected Object read(FlatClosure c,
+                              @Cached("c.getClass()") Class<? extends FlatClosure> layout,
+                              @Cached("c.isLong(getIx())") boolean unboxed) {
+            return layout.cast(c).get(getIx());
+        }
+
+        @Specialization(contains = {"readLong", "read"})
+        protected Object readAny(FlatClosure c) {
+            return c.get(getIx());
         }
     }
 
@@ -225,13 +360,206 @@ public final class PrimOp {
     @NodeChildren({@NodeChild("lhs"), @NodeChild("rhs")})
     @GenerateNodeFactory
     static abstract class Binary extends Expr {
+        // For operands that have already been evaluated (see Variadic).
+        public abstract Object executeWith(VirtualFrame frame, Object lhs, Object rhs);
+    }
+
+    @NodeChild("value")
+    @GenerateNodeFactory
+    static abstract class Unary extends Expr {
+    }
+
+    @NodeChildren({@NodeChild("first"), @NodeChild("second"), @NodeChild("third")})
+    @GenerateNodeFactory
+    static abstract class Ternary extends Expr {
+    }
+
+    // Operands that none of a primitive's specializations take are the program's error.
+    static RaiseException wrongType(String op, Object... operands) {
+        CompilerDirectives.transferToInterpreter();
+        return Exceptions.error(op + ": wrong type of argument", operands);
     }
 
+    // Numeric primitives. Fixnum arithmetic overflows into bignums: the bignum specializations
+    // also take fixnums, through the implicit cast, so that's where an overflowing fixnum
+    // operation goes next. Any number can be used as a flonum, so the double specializations
+    // come last and also cover mixed operands.
+
     static abstract class Add extends Binary {
-        @Specialization
+        @Specialization(rewriteOn = ArithmeticException.class)
         protected long doLong(long lhs, long rhs) {
+            return Math.addExact(lhs, rhs);
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return Numbers.normalize(lhs.add(rhs));
+        }
+
+        @Specialization
+        protected double doDouble(double lhs, double rhs) {
             return lhs + rhs;
         }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("+", lhs, rhs);
+        }
+    }
+
+    static abstract class Sub extends Binary {
+        @Specialization(rewriteOn = ArithmeticException.class)
+        protected long doLong(long lhs, long rhs) {
+            return Math.subtractExact(lhs, rhs);
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return Numbers.normalize(lhs.subtract(rhs));
+        }
+
+        @Specialization
+        protected double doDouble(double lhs, double rhs) {
+            return lhs - rhs;
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("-", lhs, rhs);
+        }
+    }
+
+    static abstract class Mul extends Binary {
+        @Specialization(rewriteOn = ArithmeticException.class)
+        protected long doLong(long lhs, long rhs) {
+            return Math.multiplyExact(lhs, rhs);
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return Numbers.normalize(lhs.multiply(rhs));
+        }
+
+        @Specialization
+        protected double doDouble(double lhs, double rhs) {
+            return lhs * rhs;
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("*", lhs, rhs);
+        }
+    }
+
+    // Integer division truncates. Dividing by zero throws, from either specialization.
+    // A zero divisor is the program's error, raised as such. Going to the BigInteger
+    // specializations is only for the overflow of Long.MIN_VALUE / -1.
+    private static void checkDivisor(String op, long divisor) {
+        if (divisor == 0) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error(op + ": division by zero");
+        }
+    }
+
+    private static void checkDivisor(String op, BigInteger divisor) {
+        if (divisor.signum() == 0) {
+            throw Exceptions.error(op + ": division by zero");
+        }
+    }
+
+    static abstract class Quotient extends Binary {
+        @Specialization(rewriteOn = ArithmeticException.class)
+        protected long doLong(long lhs, long rhs) {
+            checkDivisor("quotient", rhs);
+            if (lhs == Long.MIN_VALUE && rhs == -1) {
+                throw new ArithmeticException("long overflow");
+            }
+            return lhs / rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            checkDivisor("quotient", rhs);
+            return Numbers.normalize(lhs.divide(rhs));
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("quotient", lhs, rhs);
+        }
+    }
+
+    // Has the sign of the dividend. Long.MIN_VALUE % -1 is 0 in Java, so longs never overflow.
+    static abstract class Remainder extends Binary {
+        @Specialization
+        protected long doLong(long lhs, long rhs) {
+            checkDivisor("remainder", rhs);
+            return lhs % rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            checkDivisor("remainder", rhs);
+            return Numbers.normalize(lhs.remainder(rhs));
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("remainder", lhs, rhs);
+        }
+    }
+
+    // Has the sign of the divisor. Never overflows either.
+    static abstract class Modulo extends Binary {
+        @Specialization
+        protected long doLong(long lhs, long rhs) {
+            checkDivisor("modulo", rhs);
+            return Math.floorMod(lhs, rhs);
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            checkDivisor("modulo", rhs);
+            BigInteger r = lhs.remainder(rhs);
+            if (r.signum() != 0 && r.signum() != rhs.signum()) {
+                r = r.add(rhs);
+            }
+            return Numbers.normalize(r);
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("modulo", lhs, rhs);
+        }
+    }
+
+    static abstract class NumEq extends Binary {
+        @Specialization
+        protected boolean doLong(long lhs, long rhs) {
+            return lhs == rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected boolean doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return lhs.equals(rhs);
+        }
+
+        @Specialization
+        protected boolean doDouble(double lhs, double rhs) {
+            return lhs == rhs;
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("=", lhs, rhs);
+        }
     }
 
     static abstract class LongEq extends Binary {
@@ -248,17 +576,700 @@ public final class PrimOp {
         }
     }
 
-    static abstract class Sub extends Binary {
+    static abstract class Lt extends Binary {
+        @Specialization
+        protected boolean doLong(long lhs, long rhs) {
+            return lhs < rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected boolean doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return lhs.compareTo(rhs) < 0;
+        }
+
+        @Specialization
+        protected boolean doDouble(double lhs, double rhs) {
+            return lhs < rhs;
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("<", lhs, rhs);
+        }
+    }
+
+    static abstract class Le extends Binary {
+        @Specialization
+        protected boolean doLong(long lhs, long rhs) {
+            return lhs <= rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected boolean doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return lhs.compareTo(rhs) <= 0;
+        }
+
+        @Specialization
+        protected boolean doDouble(double lhs, double rhs) {
+            return lhs <= rhs;
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("<=", lhs, rhs);
+        }
+    }
+
+    static abstract class Gt extends Binary {
+        @Specialization
+        protected boolean doLong(long lhs, long rhs) {
+            return lhs > rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected boolean doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return lhs.compareTo(rhs) > 0;
+        }
+
+        @Specialization
+        protected boolean doDouble(double lhs, double rhs) {
+            return lhs > rhs;
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType(">", lhs, rhs);
+        }
+    }
+
+    static abstract class Ge extends Binary {
+        @Specialization
+        protected boolean doLong(long lhs, long rhs) {
+            return lhs >= rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected boolean doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return lhs.compareTo(rhs) >= 0;
+        }
+
+        @Specialization
+        protected boolean doDouble(double lhs, double rhs) {
+            return lhs >= rhs;
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType(">=", lhs, rhs);
+        }
+    }
+
+    static abstract class Min extends Binary {
         @Specialization
         protected long doLong(long lhs, long rhs) {
-            return lhs - rhs;
+            return Math.min(lhs, rhs);
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return Numbers.normalize(lhs.min(rhs));
+        }
+
+        @Specialization
+        protected double doDouble(double lhs, double rhs) {
+            return Math.min(lhs, rhs);
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("min", lhs, rhs);
         }
     }
 
-    static abstract class Lt extends Binary {
+    static abstract class Max extends Binary {
+        @Specialization
+        protected long doLong(long lhs, long rhs) {
+            return Math.max(lhs, rhs);
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return Numbers.normalize(lhs.max(rhs));
+        }
+
+        @Specialization
+        protected double doDouble(double lhs, double rhs) {
+            return Math.max(lhs, rhs);
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("max", lhs, rhs);
+        }
+    }
+
+    static abstract class Abs extends Unary {
+        @Specialization(rewriteOn = ArithmeticException.class)
+        protected long doLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                throw new ArithmeticException("long overflow");
+            }
+            return Math.abs(value);
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger value) {
+            return Numbers.normalize(value.abs());
+        }
+
+        @Specialization
+        protected double doDouble(double value) {
+            return Math.abs(value);
+        }
+
+        @Fallback
+        protected Object doOther(Object value) {
+            throw wrongType("abs", value);
+        }
+    }
+
+    static abstract class ExactToInexact extends Unary {
+        @Specialization
+        protected double doDouble(double value) {
+            return value;
+        }
+
+        @Fallback
+        protected Object doOther(Object value) {
+            throw wrongType("exact->inexact", value);
+        }
+    }
+
+    static abstract class BitAnd extends Binary {
+        @Specialization
+        protected long doLong(long lhs, long rhs) {
+            return lhs & rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return Numbers.normalize(lhs.and(rhs));
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("bitwise-and", lhs, rhs);
+        }
+    }
+
+    static abstract class BitOr extends Binary {
+        @Specialization
+        protected long doLong(long lhs, long rhs) {
+            return lhs | rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return Numbers.normalize(lhs.or(rhs));
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("bitwise-ior", lhs, rhs);
+        }
+    }
+
+    static abstract class BitXor extends Binary {
+        @Specialization
+        protected long doLong(long lhs, long rhs) {
+            return lhs ^ rhs;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger lhs, BigInteger rhs) {
+            return Numbers.normalize(lhs.xor(rhs));
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("bitwise-xor", lhs, rhs);
+        }
+    }
+
+    static abstract class BitNot extends Unary {
+        @Specialization
+        protected long doLong(long value) {
+            return ~value;
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger value) {
+            return Numbers.normalize(value.not());
+        }
+
+        @Fallback
+        protected Object doOther(Object value) {
+            throw wrongType("bitwise-not", value);
+        }
+    }
+
+    // (arithmetic-shift n count): shifts left for a positive count, right otherwise.
+    static abstract class ArithmeticShift extends Binary {
+        @Specialization(rewriteOn = ArithmeticException.class)
+        protected long doLong(long value, long count) {
+            if (count >= 0) {
+                long res = count < Long.SIZE ? value << count : 0;
+                if (res >> count != value || count >= Long.SIZE && value != 0) {
+                    throw new ArithmeticException("long overflow");
+                }
+                return res;
+            }
+            return value >> Math.min(-count, Long.SIZE - 1);
+        }
+
+        @Specialization
+        @TruffleBoundary
+        protected Object doBigInteger(BigInteger value, long count) {
+            return Numbers.normalize(value.shiftLeft((int) count));
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("arithmetic-shift", lhs, rhs);
+        }
+    }
+
+    // Identity, except that fixnums, booleans and characters are compared by value, as they
+    // are boxed anew all the time.
+    static abstract class Eq extends Binary {
         @Specialization
         protected boolean doLong(long lhs, long rhs) {
-            return lhs < rhs;
+            return lhs == rhs;
+        }
+
+        @Specialization
+        protected boolean doBoolean(boolean lhs, boolean rhs) {
+            return lhs == rhs;
+        }
+
+        @Specialization
+        protected boolean doObject(Object lhs, Object rhs) {
+            return Equality.eq(lhs, rhs);
+        }
+    }
+
+    static abstract class Eqv extends Binary {
+        @Specialization
+        protected boolean doLong(long lhs, long rhs) {
+            return lhs == rhs;
+        }
+
+        @Specialization
+        protected boolean doObject(Object lhs, Object rhs) {
+            return Equality.eqv(lhs, rhs);
+        }
+    }
+
+    static abstract class Equal extends Binary {
+        @Specialization
+        protected boolean doLong(long lhs, long rhs) {
+            return lhs == rhs;
+        }
+
+        @Specialization
+        protected boolean doObject(Object lhs, Object rhs) {
+            return Equality.equal(lhs, rhs);
+        }
+    }
+
+    static abstract class SymbolToString extends Unary {
+        @Specialization
+        protected SchemeString doSymbol(Symbol symbol) {
+            return SchemeString.create(symbol.name(), false);
+        }
+    }
+
+    // Strings (see SchemeString).
+
+    // (make-string length [char])
+    static final class MakeString extends Expr {
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object[] args = frame.getArguments();
+            if (!(args[0] instanceof Long) || args.length > 1 && !(args[1] instanceof Character)) {
+                throw wrongType("make-string", args);
+            }
+            return SchemeString.filled((long) args[0], args.length > 1 ? (char) args[1] : ' ');
+        }
+    }
+
+    static abstract class StringLength extends Unary {
+        @Specialization
+        protected long doString(SchemeString string) {
+            return string.length();
+        }
+
+        @Fallback
+        protected Object doOther(Object value) {
+            throw wrongType("string-length", value);
+        }
+    }
+
+    static abstract class StringRef extends Binary {
+        @Specialization
+        protected char doString(SchemeString string, long ix) {
+            return string.charAt(ix);
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("string-ref", lhs, rhs);
+        }
+    }
+
+    static abstract class StringSet extends Ternary {
+        @Specialization
+        protected Object doString(SchemeString string, long ix, char value) {
+            string.setCharAt(ix, value);
+            return Nil.INSTANCE;
+        }
+
+        @Fallback
+        protected Object doOther(Object first, Object second, Object third) {
+            throw wrongType("string-set!", first, second, third);
+        }
+    }
+
+    static abstract class Substring extends Ternary {
+        @Specialization
+        protected SchemeString doString(SchemeString string, long start, long end) {
+            return string.substring(start, end);
+        }
+
+        @Fallback
+        protected Object doOther(Object first, Object second, Object third) {
+            throw wrongType("substring", first, second, third);
+        }
+    }
+
+    static abstract class StringAppend extends Binary {
+        @Specialization
+        protected SchemeString doString(SchemeString lhs, SchemeString rhs) {
+            return SchemeString.append(lhs, rhs);
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("string-append", lhs, rhs);
+        }
+    }
+
+    static abstract class StringEq extends Binary {
+        @Specialization
+        protected boolean doString(SchemeString lhs, SchemeString rhs) {
+            return SchemeString.contentEquals(lhs, rhs);
+        }
+
+        @Fallback
+        protected Object doOther(Object lhs, Object rhs) {
+            throw wrongType("string=?", lhs, rhs);
+        }
+    }
+
+    static abstract class StringToSymbol extends Unary {
+        @Specialization
+        protected Symbol doString(SchemeString string) {
+            return Symbol.apply(string.toString());
+        }
+
+        @Fallback
+        protected Object doOther(Object value) {
+            throw wrongType("string->symbol", value);
+        }
+    }
+
+    // Pairs and lists. A cons with a fixnum car makes a LongPair, so car can return it unboxed.
+
+    static abstract class Cons extends Binary {
+        @Specialization
+        protected Pair doLong(long car, Object cdr) {
+            return new Pair.LongPair(car, cdr);
+        }
+
+        @Specialization(contains = "doLong")
+        protected Pair doObject(Object car, Object cdr) {
+            return Pair.create(car, cdr);
+        }
+    }
+
+    static abstract class Car extends Unary {
+        @Specialization
+        protected long doLong(Pair.LongPair pair) {
+            return pair.car;
+        }
+
+        @Specialization
+        protected Object doObject(Pair.ObjectPair pair) {
+            return pair.car;
+        }
+
+        @Fallback
+        protected Object doNotPair(Object value) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("car: not a pair", value);
+        }
+    }
+
+    static abstract class Cdr extends Unary {
+        @Specialization
+        protected Object doPair(Pair pair) {
+            return pair.cdr;
+        }
+
+        @Fallback
+        protected Object doNotPair(Object value) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("cdr: not a pair", value);
+        }
+    }
+
+    static abstract class IsNull extends Unary {
+        @Specialization
+        protected boolean doGeneric(Object value) {
+            return value == Nil.INSTANCE;
+        }
+    }
+
+    static abstract class IsPair extends Unary {
+        @Specialization
+        protected boolean doGeneric(Object value) {
+            return value instanceof Pair;
+        }
+    }
+
+    static abstract class Length extends Unary {
+        @Specialization
+        protected long doList(Object list) {
+            return Pair.length(list);
+        }
+    }
+
+    static abstract class Reverse extends Unary {
+        @Specialization
+        protected Object doList(Object list) {
+            return Pair.reverse(list);
+        }
+    }
+
+    static abstract class Append extends Binary {
+        @Specialization
+        protected Object doList(Object front, Object back) {
+            return Pair.append(front, back);
+        }
+    }
+
+    // Hash tables, specialized on their key storage (see HashTable).
+
+    // (make-hash-table [eq?|eqv?|equal?]), equal? by default.
+    static final class MakeHashTable extends Expr {
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object[] args = frame.getArguments();
+            Object equiv = args.length > 0 ? args[0] : EQUAL;
+            if (equiv == EQ) {
+                return new HashTable(HashTable.Kind.EQ);
+            } else if (equiv == EQV) {
+                return new HashTable(HashTable.Kind.EQV);
+            } else if (equiv == EQUAL) {
+                return new HashTable(HashTable.Kind.EQUAL);
+            }
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("make-hash-table: unsupported equivalence", equiv);
+        }
+    }
+
+    static abstract class HashTableGet extends Binary {
+        @Specialization(guards = "table.takesLongKeys()")
+        protected Object doLong(HashTable table, long key) {
+            return table.getLong(key);
+        }
+
+        @Specialization(guards = "table.takesSymbolKeys()")
+        protected Object doSymbol(HashTable table, Symbol key) {
+            return table.getSymbol(key);
+        }
+
+        @Specialization
+        protected Object doGeneric(HashTable table, Object key) {
+            return table.get(key);
+        }
+
+        @Fallback
+        protected Object doOther(Object table, Object key) {
+            throw wrongType("hash-table-ref", table, key);
+        }
+    }
+
+    static abstract class HashTableSet extends Ternary {
+        @Specialization(guards = "table.takesLongKeys()")
+        protected Object doLong(HashTable table, long key, Object value) {
+            table.putLong(key, value);
+            return Nil.INSTANCE;
+        }
+
+        @Specialization(guards = "table.takesSymbolKeys()")
+        protected Object doSymbol(HashTable table, Symbol key, Object value) {
+            table.putSymbol(key, value);
+            return Nil.INSTANCE;
+        }
+
+        @Specialization
+        protected Object doGeneric(HashTable table, Object key, Object value) {
+            table.put(key, value);
+            return Nil.INSTANCE;
+        }
+
+        @Fallback
+        protected Object doOther(Object table, Object key, Object value) {
+            throw wrongType("hash-table-set!", table, key, value);
+        }
+    }
+
+    static final class HashTableRef extends Expr {
+        @Child
+        private Expr get = PrimOpFactory.HashTableGetFactory.create(ReadArgNodeGen.create(0), ReadArgNodeGen.create(1));
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object value = get.executeGeneric(frame);
+            if (value == null) {
+                CompilerDirectives.transferToInterpreter();
+                throw Exceptions.error("hash-table-ref: no such key", Args.get(frame.getArguments(), 1));
+            }
+            return value;
+        }
+    }
+
+    static final class HashTableRefDefault extends Expr {
+        @Child
+        private Expr get = PrimOpFactory.HashTableGetFactory.create(ReadArgNodeGen.create(0), ReadArgNodeGen.create(1));
+        @Child
+        private Expr fallback = ReadArgNodeGen.create(2);
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object value = get.executeGeneric(frame);
+            return value != null ? value : fallback.executeGeneric(frame);
+        }
+    }
+
+    // Vectors, specialized on their storage (see Vector).
+
+    // (make-vector length [fill])
+    static final class MakeVector extends Expr {
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            Object[] args = frame.getArguments();
+            if (!(args[0] instanceof Long)) {
+                throw wrongType("make-vector", args[0]);
+            }
+            return Vector.create((long) args[0], args.length > 1 ? args[1] : 0L);
+        }
+    }
+
+    static final class VectorOf extends Expr {
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            return Vector.fromValues(frame.getArguments());
+        }
+    }
+
+    static abstract class VectorLength extends Unary {
+        @Specialization
+        protected long doVector(Vector vector) {
+            return vector.length();
+        }
+
+        @Fallback
+        protected Object doOther(Object value) {
+            throw wrongType("vector-length", value);
+        }
+    }
+
+    static abstract class VectorRef extends Binary {
+        @Specialization(guards = "vector.isLongs()")
+        protected long doLongs(Vector vector, long ix) {
+            long[] longs = (long[]) vector.storage();
+            return longs[Vector.index(ix, longs.length)];
+        }
+
+        @Specialization(guards = "vector.isDoubles()")
+        protected double doDoubles(Vector vector, long ix) {
+            double[] doubles = (double[]) vector.storage();
+            return doubles[Vector.index(ix, doubles.length)];
+        }
+
+        @Specialization(guards = "vector.isObjects()")
+        protected Object doObjects(Vector vector, long ix) {
+            Object[] objects = (Object[]) vector.storage();
+            return objects[Vector.index(ix, objects.length)];
+        }
+
+        @Fallback
+        protected Object doOther(Object vector, Object ix) {
+            throw wrongType("vector-ref", vector, ix);
+        }
+    }
+
+    // A double-typed value parameter would also take fixnums through the implicit cast, and
+    // storing those in a double[] would lose their exactness. So flonums are checked for by
+    // hand, and anything that doesn't fit the storage goes through Vector.set, which migrates.
+    static abstract class VectorSet extends Ternary {
+        @Specialization(guards = "vector.isLongs()")
+        protected Object doLongs(Vector vector, long ix, long value) {
+            long[] longs = (long[]) vector.storage();
+            longs[Vector.index(ix, longs.length)] = value;
+            return Nil.INSTANCE;
+        }
+
+        @Specialization(guards = {"vector.isDoubles()", "isDouble(value)"})
+        protected Object doDoubles(Vector vector, long ix, Object value) {
+            double[] doubles = (double[]) vector.storage();
+            doubles[Vector.index(ix, doubles.length)] = (double) value;
+            return Nil.INSTANCE;
+        }
+
+        @Specialization(guards = "vector.isObjects()")
+        protected Object doObjects(Vector vector, long ix, Object value) {
+            Object[] objects = (Object[]) vector.storage();
+            objects[Vector.index(ix, objects.length)] = value;
+            return Nil.INSTANCE;
+        }
+
+        @Specialization
+        protected Object doMigrate(Vector vector, long ix, Object value) {
+            vector.set(ix, value);
+            return Nil.INSTANCE;
+        }
+
+        @Fallback
+        protected Object doOther(Object vector, Object ix, Object value) {
+            throw wrongType("vector-set!", vector, ix, value);
+        }
+
+        protected static boolean isDouble(Object value) {
+            return value instanceof Double;
         }
     }
 
@@ -8,8 +8,17 @@ import com.oracle.truffle.api.frame.VirtualFrame;
 public abstract class ReadArgNode extends Expr {
     abstract int getIx();
 
+    @Specialization(guards = "isUnboxed(frame)")
+    protected long readUnboxed(VirtualFrame frame) {
+        return Args.getLong(frame.getArguments(), getIx());
+    }
+
     @Specialization
     public Object read(VirtualFrame frame) {
-        return frame.getArguments()[getIx()];
+        return Args.get(frame.getArguments(), getIx());
+    }
+
+    protected boolean isUnboxed(VirtualFrame frame) {
+        return Args.isUnboxed(frame.getArguments(), getIx());
     }
 }
@@ -1,9 +1,13 @@
 package com.github.overmind.yasir.ast;
 
 import com.github.overmind.yasir.Yasir;
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.RootCallTarget;
 import com.oracle.truffle.api.frame.FrameDescriptor;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.nodes.RootNode;
+import com.oracle.truffle.api.utilities.CyclicAssumption;
 
 public final class RootEntry {
     public static RootNode create(Expr body) {
@@ -11,17 +15,64 @@ public final class RootEntry {
     }
 
     public static RootNode create(Expr body, FrameDescriptor fd) {
-        return new RootEntryImpl(fd, body);
+        return new RootEntryImpl(fd, body, false);
+    }
+
+    // For bodies that only look at their arguments through ReadArgNode or MkLambda.BodyWrapper,
+    // which understand the unboxed calling convention (see Args).
+    public static RootNode createTakingUnboxedArgs(Expr body, FrameDescriptor fd) {
+        return new RootEntryImpl(fd, body, true);
+    }
+
+    public static boolean takesUnboxedArgs(CallTarget target) {
+        return longArgs(target) != null;
+    }
+
+    // Null if the target doesn't take unboxed arguments.
+    public static LongArgs longArgs(CallTarget target) {
+        if (!(target instanceof RootCallTarget)) {
+            return null;
+        }
+        RootNode root = ((RootCallTarget) target).getRootNode();
+        return root instanceof RootEntryImpl ? ((RootEntryImpl) root).longArgs : null;
+    }
+
+    // Which arguments of a target have only ever been longs, over all its known call sites
+    // (see ApplyNode.KnownApplyNode), with bit i for argument i. A call site that gets anything
+    // else for an argument clears its bit, which sends every call site of the target back to
+    // boxing that argument.
+    public static final class LongArgs {
+        private volatile long mask = -1L;
+        private final CyclicAssumption unchanged = new CyclicAssumption("long arguments unchanged");
+
+        public long mask() {
+            return mask;
+        }
+
+        public Assumption unchanged() {
+            return unchanged.getAssumption();
+        }
+
+        public synchronized void clear(int ix) {
+            long bit = ix < 64 ? 1L << ix : 0;
+            if ((mask & bit) != 0) {
+                mask &= ~bit;
+                unchanged.invalidate();
+            }
+        }
     }
 
     protected static final class RootEntryImpl extends RootNode {
         @Child
         protected Expr body;
 
-        protected RootEntryImpl(FrameDescriptor frameDescriptor, Expr body) {
+        private final LongArgs longArgs;
+
+        protected RootEntryImpl(FrameDescriptor frameDescriptor, Expr body, boolean takesUnboxedArgs) {
             super(Yasir.getLanguageClass(), null, frameDescriptor);
 
             this.body = body;
+            this.longArgs = takesUnboxedArgs ? new LongArgs() : null;
         }
 
         public String toString() {
@@ -0,0 +1,115 @@
+package com.github.overmind.yasir.ast;
+
+import com.github.overmind.yasir.Yasir;
+import com.github.overmind.yasir.value.Box;
+import com.oracle.truffle.api.CompilerAsserts;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+
+// A function body that tail-calls itself, turned into a loop: the self call rebinds the
+// parameter slots and jumps back to the start of the body. This is the shape of
+// TestLoopClosure.createFastest, and Truffle can OSR-compile it.
+//
+// The frame is reused by the next iteration, so this is only valid when nothing captures it.
+// Boxed locals may be captured, as closures hold the boxes rather than the frame, so a jump
+// gives them new boxes, as entering the function would.
+public final class TailLoop {
+    public static Expr loop(Expr body, FrameSlot resultSlot) {
+        return new LoopImpl(body, resultSlot);
+    }
+
+    // Must be in tail position of the loop's body.
+    public static Expr jump(FrameSlot[] params, FrameSlot[] boxedLocals, Expr... args) {
+        return new Jump(params, boxedLocals, args);
+    }
+
+    // What a jump returns to the loop.
+    static final Object CONTINUE = new Object() {
+        @Override
+        public String toString() {
+            return "#<continue>";
+        }
+    };
+
+    static final class LoopImpl extends Expr {
+        @Child
+        private LoopNode loopNode;
+
+        private final FrameSlot resultSlot;
+
+        LoopImpl(Expr body, FrameSlot resultSlot) {
+            this.resultSlot = resultSlot;
+            loopNode = Yasir.rt().createLoopNode(new Body(body, resultSlot));
+        }
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            loopNode.executeLoop(frame);
+            return frame.getValue(resultSlot);
+        }
+    }
+
+    static final class Body extends Node implements RepeatingNode {
+        @Child
+        private Expr body;
+
+        private final FrameSlot resultSlot;
+
+        Body(Expr body, FrameSlot resultSlot) {
+            this.body = body;
+            this.resultSlot = resultSlot;
+        }
+
+        @Override
+        public boolean executeRepeating(VirtualFrame frame) {
+            Object res = body.executeGeneric(frame);
+            if (res == CONTINUE) {
+                return true;
+            }
+            frame.setObject(resultSlot, res);
+            return false;
+        }
+    }
+
+    static final class Jump extends Expr {
+        private final FrameSlot[] params;
+        private final FrameSlot[] boxedLocals;
+
+        @Children
+        private final Expr[] args;
+
+        Jump(FrameSlot[] params, FrameSlot[] boxedLocals, Expr[] args) {
+            this.params = params;
+            this.boxedLocals = boxedLocals;
+            this.args = args;
+        }
+
+        @Override
+        @ExplodeLoop
+        public Object executeGeneric(VirtualFrame frame) {
+            CompilerAsserts.compilationConstant(params.length);
+            CompilerAsserts.compilationConstant(boxedLocals.length);
+
+            // All the arguments are evaluated before any parameter is overwritten.
+            Object[] values = ApplyNode.evalArgs(frame, args);
+            for (int i = 0; i < params.length; ++i) {
+                // Same as MkLambda.BodyWrapper, so that the reads of a parameter stay monomorphic.
+                if (values[i] instanceof Long) {
+                    frame.setLong(params[i], (long) values[i]);
+                } else if (values[i] instanceof Boolean) {
+                    frame.setBoolean(params[i], (boolean) values[i]);
+                } else {
+                    frame.setObject(params[i], values[i]);
+                }
+            }
+            for (int i = 0; i < boxedLocals.length; ++i) {
+                frame.setObject(boxedLocals[i], Box.create());
+            }
+            return CONTINUE;
+        }
+    }
+}
@@ -81,9 +81,9 @@ public final class TestFiboClosure {
         RootNode fiboTrampoRoot = RootEntry.create(
                 ApplyNode.known(fibo, ReadArgNodeGen.create(0),
                         PrimOp.litObj(fibo),
-                        PrimOp.litObj(PrimOp.makeBinaryClosure(PrimOpFactory.AddFactory.getInstance())),
-                        PrimOp.litObj(PrimOp.makeBinaryClosure(PrimOpFactory.SubFactory.getInstance())),
-                        PrimOp.litObj(PrimOp.makeBinaryClosure(PrimOpFactory.LtFactory.getInstance()))));
+                        PrimOp.litObj(PrimOp.makeBinaryClosure("+", PrimOpFactory.AddFactory.getInstance())),
+                        PrimOp.litObj(PrimOp.makeBinaryClosure("-", PrimOpFactory.SubFactory.getInstance())),
+                        PrimOp.litObj(PrimOp.makeBinaryClosure("<", PrimOpFactory.LtFactory.getInstance()))));
 
         fibo.setTarget(Yasir.rt().createCallTarget(fiboRoot));
         fiboTrampo.setTarget(Yasir.rt().createCallTarget(fiboTrampoRoot));
@@ -101,9 +101,9 @@ public final class TestFiboClosure {
                 ApplyNode.known(fibo, ReadArgNodeGen.create(0),
                         PrimOp.litObj(array(
                                 fibo,
-                                PrimOp.makeBinaryClosure(PrimOpFactory.AddFactory.getInstance()),
-                                PrimOp.makeBinaryClosure(PrimOpFactory.SubFactory.getInstance()),
-                                PrimOp.makeBinaryClosure(PrimOpFactory.LtFactory.getInstance())))));
+                                PrimOp.makeBinaryClosure("+", PrimOpFactory.AddFactory.getInstance()),
+                                PrimOp.makeBinaryClosure("-", PrimOpFactory.SubFactory.getInstance()),
+                                PrimOp.makeBinaryClosure("<", PrimOpFactory.LtFactory.getInstance())))));
 
         fibo.setTarget(Yasir.rt().createCallTarget(fiboRoot));
         fiboTrampo.setTarget(Yasir.rt().createCallTarget(fiboTrampoRoot));
@@ -125,9 +125,9 @@ public final class TestFiboClosure {
         RootNode fiboRoot = RootEntry.create(new PassMoreFuncInMatFrame(fiboSlot, addSlot, subSlot, ltSlot));
         RootNode fiboTrampoRoot = RootEntry.create(Begin.create(
                 Vars.write(fiboSlot, PrimOp.litObj(fibo)),
-                Vars.write(addSlot, PrimOp.litObj(PrimOp.makeBinaryClosure(PrimOpFactory.AddFactory.getInstance()))),
-                Vars.write(subSlot, PrimOp.litObj(PrimOp.makeBinaryClosure(PrimOpFactory.SubFactory.getInstance()))),
-                Vars.write(ltSlot, PrimOp.litObj(PrimOp.makeBinaryClosure(PrimOpFactory.LtFactory.getInstance()))),
+                Vars.write(addSlot, PrimOp.litObj(PrimOp.makeBinaryClosure("+", PrimOpFactory.AddFactory.getInstance()))),
+                Vars.write(subSlot, PrimOp.litObj(PrimOp.makeBinaryClosure("-", PrimOpFactory.SubFactory.getInstance()))),
+                Vars.write(ltSlot, PrimOp.litObj(PrimOp.makeBinaryClosure("<", PrimOpFactory.LtFactory.getInstance()))),
                 ApplyNode.known(fibo, ReadArgNodeGen.create(0), PrimOp.matCurrentFrame())
         ), trampoFd);
 
@@ -210,9 +210,9 @@ public final class TestFiboClosure {
         BareFunction fibo = new BareFunction(null, "fibo-closure");
         BareFunction fiboTrampo = new BareFunction(null, "fibo-trampo");
 
-        BareFunction add = PrimOp.makeBinaryClosure(PrimOpFactory.AddFactory.getInstance());
-        BareFunction sub = PrimOp.makeBinaryClosure(PrimOpFactory.SubFactory.getInstance());
-        BareFunction lt = PrimOp.makeBinaryClosure(PrimOpFactory.LtFactory.getInstance());
+        BareFunction add = PrimOp.makeBinaryClosure("+", PrimOpFactory.AddFactory.getInstance());
+        BareFunction sub = PrimOp.makeBinaryClosure("-", PrimOpFactory.SubFactory.getInstance());
+        BareFunction lt = PrimOp.makeBinaryClosure("<", PrimOpFactory.LtFactory.getInstance());
 
         RootNode fiboRoot = RootEntry.create(
                 new InjectClosureThroughCompilationContext(fibo, add, sub, lt));
@@ -230,9 +230,9 @@ public final class TestFiboClosure {
         BareFunction fibo = new BareFunction(null, "fibo-closure");
         BareFunction fiboTrampo = new BareFunction(null, "fibo-trampo");
 
-        BareFunction add = PrimOp.makeBinaryClosure(PrimOpFactory.AddFactory.getInstance());
-        BareFunction sub = PrimOp.makeBinaryClosure(PrimOpFactory.SubFactory.getInstance());
-        BareFunction lt = PrimOp.makeBinaryClosure(PrimOpFactory.LtFactory.getInstance());
+        BareFunction add = PrimOp.makeBinaryClosure("+", PrimOpFactory.AddFactory.getInstance());
+        BareFunction sub = PrimOp.makeBinaryClosure("-", PrimOpFactory.SubFactory.getInstance());
+        BareFunction lt = PrimOp.makeBinaryClosure("<", PrimOpFactory.LtFactory.getInstance());
 
         RootNode fiboRoot = RootEntry.create(
                 new InjectClosureThroughCompilationContext(fibo, add, sub, lt));
@@ -245,7 +245,7 @@ public final class TestFiboClosure {
 
     // inline primops with only the fibo function CPS-ed.
     // 100x slow down.
-    static BareFunction createFastCPSWithArrayBasedClosure() {
+    public static BareFunction createFastCPSWithArrayBasedClosure() {
         BareFunction fiboEntryB = BareFunction.empty("fibo-entry"),
                 fiboRet1C = BareFunction.empty("fibo-ret1"),
                 fiboRet2C = BareFunction.empty("fibo-ret2");
@@ -348,7 +348,7 @@ public final class TestFiboClosure {
     }
 
     // Use a switch to dispatch labels.
-    static BareFunction createLabeledCPS() {
+    public static BareFunction createLabeledCPS() {
         BareFunction fibo = BareFunction.empty("fibo");
         FrameDescriptor fd = new FrameDescriptor();
 
@@ -23,7 +23,7 @@ public final class TestLoopClosure {
     }
 
     // Slow because the argument allocation can't be removed. Using an exception is even 1.5x slower!
-    private static BareFunction createCheckWhyIAmSlow() {
+    public static BareFunction createCheckWhyIAmSlow() {
         FrameDescriptor fd = new FrameDescriptor();
         FrameSlot cont = fd.addFrameSlot("cont");
         FrameSlot args = fd.addFrameSlot("args");
@@ -107,7 +107,7 @@ public final class TestLoopClosure {
     }
 
     // Too many allocations. This is only slightly better than the explicit tailcall
-    private static BareFunction createTailcallWithExplicitCPSLoop() {
+    public static BareFunction createTailcallWithExplicitCPSLoop() {
         FrameDescriptor fd = new FrameDescriptor();
         FrameSlot cont = fd.addFrameSlot("cont", FrameSlotKind.Object);
         FrameSlot args = fd.addFrameSlot("args", FrameSlotKind.Object);
@@ -163,7 +163,7 @@ public final class TestLoopClosure {
     }
 
     // Same as passing the state in the arguments.
-    private static BareFunction createTailcallMutatingMatFrame() {
+    public static BareFunction createTailcallMutatingMatFrame() {
         FrameDescriptor fd = new FrameDescriptor();
         FrameSlot i = fd.addFrameSlot("i");
         FrameSlot s = fd.addFrameSlot("s");
@@ -196,7 +196,7 @@ public final class TestLoopClosure {
     // Quote from http://markmail.org/message/ehou7ansc6dicllg#query:+page:1+mid:a6ruspukl4i4vgmq+state:results
     // "That said, if Truffle does not see the exception thrown and caught in the
     // same compilation scope there is some price to pay for tail calls atm, yes."
-    private static BareFunction createTailcallWithStateInArgs() {
+    public static BareFunction createTailcallWithStateInArgs() {
         FrameDescriptor fd = new FrameDescriptor();
         FrameSlot i = fd.addFrameSlot("i");
         FrameSlot s = fd.addFrameSlot("s");
@@ -220,7 +220,7 @@ public final class TestLoopClosure {
     }
 
     // 1x. Storing the functions into local variables works.
-    private static BareFunction createPassingPrimOpsInFreshMatFrameIntoLocal() {
+    public static BareFunction createPassingPrimOpsInFreshMatFrameIntoLocal() {
         BareFunction trampo = BareFunction.empty("loop-pass-primops-trampo");
         BareFunction loop = BareFunction.empty("loop-pass-primops");
 
@@ -282,7 +282,7 @@ public final class TestLoopClosure {
     }
 
     // Same as using the parent's mat frame (4x slow down). Not quite good.
-    private static BareFunction createPassingPrimOpsInFreshMatFrame() {
+    public static BareFunction createPassingPrimOpsInFreshMatFrame() {
         BareFunction trampo = BareFunction.empty("loop-pass-primops-trampo");
         BareFunction loop = BareFunction.empty("loop-pass-primops");
 
@@ -342,7 +342,7 @@ public final class TestLoopClosure {
     // Primops function passed in an mat frame.
     // This incurs some (~4x) slow downs, but might be still acceptable. Note sure why
     // this can't be optimized...
-    private static BareFunction createReadingPrimOpsFromParentsMatFrame() {
+    public static BareFunction createReadingPrimOpsFromParentsMatFrame() {
         BareFunction trampo = BareFunction.empty("loop-pass-primops-trampo");
         BareFunction loop = BareFunction.empty("loop-pass-primops");
 
@@ -362,7 +362,7 @@ public final class TestLoopClosure {
                 Vars.write(arr, new Expr() {
                     @Override
                     public Object executeGeneric(VirtualFrame frame) {
-                        return Yasir.rt().getCallerFrame().getFrame(FrameInstance.FrameAccess.READ_ONLY, false);
+                        return Yasir.rt().getCallerFrame().getFrame(FrameInstance.FrameAccess.MATERIALIZE, false);
                     }
                 }),
                 new Expr() {
@@ -403,7 +403,7 @@ public final class TestLoopClosure {
     // Primops function passed in an mat frame.
     // This incurs some (~4x) slow downs, but might be still acceptable. Note sure why
     // this can't be optimized...
-    private static BareFunction createPassingPrimOpsInParentsMatFrame() {
+    public static BareFunction createPassingPrimOpsInParentsMatFrame() {
         BareFunction trampo = BareFunction.empty("loop-pass-primops-trampo");
         BareFunction loop = BareFunction.empty("loop-pass-primops");
 
@@ -460,7 +460,7 @@ public final class TestLoopClosure {
 
     // Primops function passed in an array arg. Also works - Graal's loop-based optimizations
     // are truly great.
-    private static BareFunction createPassingPrimOpsInArray() {
+    public static BareFunction createPassingPrimOpsInArray() {
         BareFunction trampo = BareFunction.empty("loop-pass-primops-trampo");
         BareFunction loop = BareFunction.empty("loop-pass-primops");
 
@@ -507,7 +507,7 @@ public final class TestLoopClosure {
     }
 
     // Primops function passed in args. Works well.
-    private static BareFunction createPassingPrimOps() {
+    public static BareFunction createPassingPrimOps() {
         BareFunction trampo = BareFunction.empty("loop-pass-primops-trampo");
         BareFunction loop = BareFunction.empty("loop-pass-primops");
 
@@ -557,7 +557,7 @@ public final class TestLoopClosure {
     }
 
     // With boxed long, repeatingNode and primop and var read/write nodes.
-    private static BareFunction createFaster() {
+    public static BareFunction createFaster() {
         BareFunction loop = BareFunction.empty("loop-fast");
 
         FrameDescriptor fd = new FrameDescriptor();
@@ -605,7 +605,7 @@ public final class TestLoopClosure {
     }
 
     // With boxed long and repeating node. Truffle is able to optimize those out.
-    private static BareFunction createFastestBoxed() {
+    public static BareFunction createFastestBoxed() {
         BareFunction loop = BareFunction.empty("loop-fast");
 
         FrameDescriptor fd = new FrameDescriptor();
@@ -645,7 +645,7 @@ public final class TestLoopClosure {
 
 
     // With unboxed long and repeating node.
-    private static BareFunction createFastest() {
+    public static BareFunction createFastest() {
         BareFunction loop = BareFunction.empty("loop-fast");
 
         FrameDescriptor fd = new FrameDescriptor();
@@ -688,7 +688,7 @@ public final class TestLoopClosure {
     }
 
     // Done in the standard Truffle way: inlined primops and repeating node.
-    private static BareFunction createStandard() {
+    public static BareFunction createStandard() {
         BareFunction trampo = BareFunction.empty("loop-fast-trampo");
 
         // [0]: closure ptr, [1]: i, [2]: s
@@ -729,7 +729,7 @@ public final class TestLoopClosure {
 
     // Inlined primops and boxed frameslot. Truffle can't optimize the boxings out in this case.
     // 10x for only one slot boxed and 20x slowdown for both.
-    private static BareFunction createStandardBoxed() {
+    public static BareFunction createStandardBoxed() {
         BareFunction trampo = BareFunction.empty("loop-fast-trampo");
 
         // [0]: closure ptr, [1]: i, [2]: s
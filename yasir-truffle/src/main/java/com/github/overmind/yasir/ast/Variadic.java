@@ -0,0 +1,249 @@
+package com.github.overmind.yasir.ast;
+
+import com.github.overmind.yasir.Yasir;
+import com.github.overmind.yasir.value.Arity;
+import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Nil;
+import com.github.overmind.yasir.value.SchemeString;
+import com.github.overmind.yasir.value.Symbol;
+import com.oracle.truffle.api.CompilerAsserts;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.NodeFactory;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.Node;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Primitives that take any number of arguments, made out of a binary node: arithmetic folds
+// left and comparisons chain over adjacent arguments. A call with a known argument count is
+// expanded in place into binary nodes (see expand). The first-class function runs the same
+// binary nodes over its argument array, with the nodes cached per argument count, and a single
+// binary node for every step once there have been too many counts.
+public final class Variadic {
+    private enum Kind {
+        FOLD, CHAIN
+    }
+
+    private static final Map<BareFunction, Variadic> byFunction = new IdentityHashMap<>();
+
+    public static final Variadic ADD = fold("+", PrimOpFactory.AddFactory.getInstance(), 0, 0L);
+    public static final Variadic SUB = fold("-", PrimOpFactory.SubFactory.getInstance(), 1, 0L);
+    public static final Variadic MUL = fold("*", PrimOpFactory.MulFactory.getInstance(), 0, 1L);
+    public static final Variadic MIN = fold("min", PrimOpFactory.MinFactory.getInstance(), 1, null);
+    public static final Variadic MAX = fold("max", PrimOpFactory.MaxFactory.getInstance(), 1, null);
+    public static final Variadic BIT_AND = fold("bitwise-and", PrimOpFactory.BitAndFactory.getInstance(), 0, -1L);
+    public static final Variadic BIT_OR = fold("bitwise-ior", PrimOpFactory.BitOrFactory.getInstance(), 0, 0L);
+    public static final Variadic BIT_XOR = fold("bitwise-xor", PrimOpFactory.BitXorFactory.getInstance(), 0, 0L);
+    public static final Variadic APPEND = fold("append", PrimOpFactory.AppendFactory.getInstance(), 0, Nil.INSTANCE);
+    public static final Variadic STRING_APPEND = fold("string-append",
+            PrimOpFactory.StringAppendFactory.getInstance(), 0, SchemeString.EMPTY);
+    public static final Variadic NUM_EQ = chain("=", PrimOpFactory.NumEqFactory.getInstance());
+    public static final Variadic LT = chain("<", PrimOpFactory.LtFactory.getInstance());
+    public static final Variadic LE = chain("<=", PrimOpFactory.LeFactory.getInstance());
+    public static final Variadic GT = chain(">", PrimOpFactory.GtFactory.getInstance());
+    public static final Variadic GE = chain(">=", PrimOpFactory.GeFactory.getInstance());
+    public static final Variadic STRING_EQ = chain("string=?", PrimOpFactory.StringEqFactory.getInstance());
+
+    private final NodeFactory<? extends PrimOp.Binary> binary;
+    private final Kind kind;
+    private final int minArity;
+    // A fold of a single argument x is (op unit x), or just x if there's no unit.
+    // No arguments at all give the unit itself.
+    private final Object unit;
+    public final BareFunction function;
+
+    private Variadic(String name, NodeFactory<? extends PrimOp.Binary> binary, Kind kind, int minArity, Object unit) {
+        this.binary = binary;
+        this.kind = kind;
+        this.minArity = minArity;
+        this.unit = unit;
+        function = new BareFunction(
+                Yasir.rt().createCallTarget(RootEntry.create(VariadicFactory.ApplyNodeGen.create(this))),
+                name, Arity.atLeast(minArity));
+        byFunction.put(function, this);
+    }
+
+    private static Variadic fold(String name, NodeFactory<? extends PrimOp.Binary> binary, int minArity, Object unit) {
+        return new Variadic(name, binary, Kind.FOLD, minArity, unit);
+    }
+
+    private static Variadic chain(String name, NodeFactory<? extends PrimOp.Binary> binary) {
+        return new Variadic(name, binary, Kind.CHAIN, 1, null);
+    }
+
+    public static Variadic of(BareFunction function) {
+        return byFunction.get(function);
+    }
+
+    // Null if the primitive can't take that many arguments.
+    public Expr expand(Expr... args) {
+        if (args.length < minArity) {
+            return null;
+        }
+        if (kind == Kind.CHAIN) {
+            return args.length == 2 ? binary(args[0], args[1]) : new Chain(args, binaries(args.length - 1));
+        }
+        if (args.length == 0) {
+            return PrimOp.litObj(unit);
+        }
+        Expr acc = unit == null || args.length > 1 ? args[0] : binary(PrimOp.litObj(unit), args[0]);
+        for (int i = 1; i < args.length; ++i) {
+            acc = binary(acc, args[i]);
+        }
+        return acc;
+    }
+
+    private PrimOp.Binary binary(Expr lhs, Expr rhs) {
+        return binary.createNode(lhs, rhs);
+    }
+
+    PrimOp.Binary[] binaries(int count) {
+        PrimOp.Binary[] ops = new PrimOp.Binary[count];
+        for (int i = 0; i < count; ++i) {
+            ops[i] = binary(null, null);
+        }
+        return ops;
+    }
+
+    @ExplodeLoop
+    Object fold(VirtualFrame frame, PrimOp.Binary[] ops, Object[] values) {
+        CompilerAsserts.compilationConstant(values.length);
+        if (values.length == 0) {
+            return unit;
+        }
+        Object acc = values[0];
+        int start = 1;
+        if (values.length == 1 && unit != null) {
+            acc = unit;
+            start = 0;
+        }
+        for (int i = start; i < values.length; ++i) {
+            acc = ops[i - start].executeWith(frame, acc, values[i]);
+        }
+        return acc;
+    }
+
+    // All the arguments are evaluated before any of the comparisons, as in a call.
+    @ExplodeLoop
+    static boolean chain(VirtualFrame frame, PrimOp.Binary[] ops, Object[] values) {
+        CompilerAsserts.compilationConstant(ops.length);
+        for (int i = 0; i < ops.length; ++i) {
+            if (!(boolean) ops[i].executeWith(frame, values[i], values[i + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // fold and chain with one node for all the steps, for any number of values.
+    Object foldAny(VirtualFrame frame, PrimOp.Binary op, Object[] values) {
+        if (values.length == 0) {
+            return unit;
+        }
+        Object acc = values[0];
+        int start = 1;
+        if (values.length == 1 && unit != null) {
+            acc = unit;
+            start = 0;
+        }
+        for (int i = start; i < values.length; ++i) {
+            acc = op.executeWith(frame, acc, values[i]);
+        }
+        return acc;
+    }
+
+    static boolean chainAny(VirtualFrame frame, PrimOp.Binary op, Object[] values) {
+        for (int i = 0; i + 1 < values.length; ++i) {
+            if (!(boolean) op.executeWith(frame, values[i], values[i + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Chain extends Expr {
+        @Children
+        private final Expr[] args;
+        @Children
+        private final PrimOp.Binary[] ops;
+
+        Chain(Expr[] args, PrimOp.Binary[] ops) {
+            this.args = args;
+            this.ops = ops;
+        }
+
+        @Override
+        @ExplodeLoop
+        public Object executeGeneric(VirtualFrame frame) {
+            CompilerAsserts.compilationConstant(args.length);
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; ++i) {
+                values[i] = args[i].executeGeneric(frame);
+            }
+            return chain(frame, ops, values);
+        }
+    }
+
+    static final class Ops extends Node {
+        @Children
+        final PrimOp.Binary[] binaries;
+
+        Ops(PrimOp.Binary[] binaries) {
+            this.binaries = binaries;
+        }
+    }
+
+    // The body of the first-class function.
+    static abstract class Apply extends Expr {
+        protected final Variadic variadic;
+
+        Apply(Variadic variadic) {
+            this.variadic = variadic;
+        }
+
+        @Specialization(guards = "argCount(frame) == arity", limit = "3")
+        protected Object doCached(VirtualFrame frame,
+                                  @Cached("checkArity(argCount(frame))") int arity,
+                                  @Cached("createOps(arity)") Ops ops) {
+            Object[] values = frame.getArguments();
+            return variadic.kind == Kind.CHAIN
+                    ? chain(frame, ops.binaries, values)
+                    : variadic.fold(frame, ops.binaries, values);
+        }
+
+        @Specialization(contains = "doCached")
+        protected Object doUncached(VirtualFrame frame, @Cached("createOps(2)") Ops ops) {
+            Object[] values = frame.getArguments();
+            checkArity(values.length);
+            PrimOp.Binary op = ops.binaries[0];
+            return variadic.kind == Kind.CHAIN
+                    ? chainAny(frame, op, values)
+                    : variadic.foldAny(frame, op, values);
+        }
+
+        protected static int argCount(VirtualFrame frame) {
+            return frame.getArguments().length;
+        }
+
+        protected int checkArity(int arity) {
+            if (arity < variadic.minArity) {
+                CompilerDirectives.transferToInterpreter();
+                throw Exceptions.error("wrong number of arguments, expected " + variadic.function.arity(),
+                        Symbol.apply(variadic.function.name()), (long) arity);
+            }
+            return arity;
+        }
+
+        protected Ops createOps(int arity) {
+            int count = Math.max(arity - 1, 0);
+            if (variadic.kind == Kind.FOLD && arity == 1 && variadic.unit != null) {
+                count = 1;
+            }
+            return new Ops(variadic.binaries(count));
+        }
+    }
+}
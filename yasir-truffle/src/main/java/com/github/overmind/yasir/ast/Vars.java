@@ -1,6 +1,9 @@
 package com.github.overmind.yasir.ast;
 
+import com.github.overmind.yasir.Yasir;
+import com.github.overmind.yasir.value.Nil;
 import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.VirtualFrame;
 
 public final class Vars {
     public static Expr read(FrameSlot slot) {
@@ -22,4 +25,30 @@ public final class Vars {
     public static Expr writeBox(FrameSlot slot, Expr value) {
         return PrimOp.writeBox(read(slot), value);
     }
+
+    // Reads a slot of the frame that is depth lexical links away (see Yasir.atDepth).
+    public static Expr readNonlocal(int depth, FrameSlot slot) {
+        return PrimOp.readMatFrame(new FrameAtDepth(depth), slot);
+    }
+
+    public static Expr writeNonlocal(int depth, FrameSlot slot, Expr value) {
+        return Begin.create(PrimOp.writeMatFrame(new FrameAtDepth(depth), slot, value), PrimOp.litObj(Nil.INSTANCE));
+    }
+
+    public static Expr frameAtDepth(int depth) {
+        return depth == 0 ? PrimOp.matCurrentFrame() : new FrameAtDepth(depth);
+    }
+
+    static final class FrameAtDepth extends Expr {
+        private final int depth;
+
+        FrameAtDepth(int depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        public Object executeGeneric(VirtualFrame frame) {
+            return Yasir.atDepth(frame, depth);
+        }
+    }
 }
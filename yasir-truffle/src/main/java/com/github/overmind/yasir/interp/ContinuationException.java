@@ -0,0 +1,19 @@
+package com.github.overmind.yasir.interp;
+
+import com.github.overmind.yasir.value.Continuation;
+import com.oracle.truffle.api.nodes.ControlFlowException;
+
+// Unwinds the stack to the call/cc that made the continuation, carrying the value to return
+// from it. Like any ControlFlowException it has no stack trace, so an escape costs about as
+// much as the unwinding.
+public final class ContinuationException extends ControlFlowException {
+    private static final long serialVersionUID = 1L;
+
+    public final Continuation continuation;
+    public final Object value;
+
+    public ContinuationException(Continuation continuation, Object value) {
+        this.continuation = continuation;
+        this.value = value;
+    }
+}
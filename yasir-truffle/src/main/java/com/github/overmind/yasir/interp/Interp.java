@@ -9,7 +9,11 @@ import java.util.stream.IntStream;
 
 public final class Interp {
     public static Object run(Expr e) {
-        return Yasir.rt().createCallTarget(RootEntry.create(e)).call();
+        try {
+            return Yasir.rt().createCallTarget(RootEntry.create(e)).call();
+        } catch (RaiseException raised) {
+            throw new IllegalStateException("uncaught exception: " + raised.payload);
+        }
     }
 
 
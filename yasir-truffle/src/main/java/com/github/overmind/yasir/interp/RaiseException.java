@@ -0,0 +1,18 @@
+package com.github.overmind.yasir.interp;
+
+import com.oracle.truffle.api.nodes.ControlFlowException;
+
+// Unwinds the stack to the nearest guard, carrying the raised object and whether it was
+// raised with raise-continuable, for a guard that has to raise it again. Like any
+// ControlFlowException it has no stack trace, so a raise costs the allocation and the unwinding.
+public final class RaiseException extends ControlFlowException {
+    private static final long serialVersionUID = 2L;
+
+    public final Object payload;
+    public final boolean continuable;
+
+    public RaiseException(Object payload, boolean continuable) {
+        this.payload = payload;
+        this.continuable = continuable;
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.overmind.yasir.interp;
+
+import com.github.overmind.yasir.value.BareFunction;
+
+// A call in tail position doesn't call: it returns one of these, and the nearest non-tail
+// apply node (or the callee itself, for a self call) makes the call. It's immutable and
+// doesn't outlive the bounce, so once the call site and the trampoline are compiled together,
+// escape analysis removes the allocation.
+public final class TailCall {
+    public final BareFunction func;
+    public final Object[] args;
+
+    public TailCall(BareFunction func, Object[] args) {
+        this.func = func;
+        this.args = args;
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.overmind.yasir.parse;
+
+import com.github.overmind.yasir.ast.Continuations;
+import com.github.overmind.yasir.ast.Exceptions;
+import com.github.overmind.yasir.ast.PrimOp;
+import com.github.overmind.yasir.ast.Variadic;
+import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Global;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// The global cells that start out bound to primitive functions. The program may shadow
+// them, or assign them like any other global.
+final class Builtins {
+    // What the names were bound to initially, for literal references to builtins (see Cereal).
+    private static final Map<String, BareFunction> builtins = new HashMap<>();
+    private static final Map<BareFunction, String> names = new IdentityHashMap<>();
+
+    static {
+        define("+", Variadic.ADD.function);
+        define("-", Variadic.SUB.function);
+        define("*", Variadic.MUL.function);
+        define("quotient", PrimOp.QUOTIENT);
+        define("remainder", PrimOp.REMAINDER);
+        define("modulo", PrimOp.MODULO);
+        define("=", Variadic.NUM_EQ.function);
+        define("<", Variadic.LT.function);
+        define("<=", Variadic.LE.function);
+        define(">", Variadic.GT.function);
+        define(">=", Variadic.GE.function);
+        define("min", Variadic.MIN.function);
+        define("max", Variadic.MAX.function);
+        define("abs", PrimOp.ABS);
+        define("exact->inexact", PrimOp.EXACT_TO_INEXACT);
+        define("inexact", PrimOp.EXACT_TO_INEXACT);
+        define("bitwise-and", Variadic.BIT_AND.function);
+        define("bitwise-ior", Variadic.BIT_OR.function);
+        define("bitwise-xor", Variadic.BIT_XOR.function);
+        define("bitwise-not", PrimOp.BIT_NOT);
+        define("arithmetic-shift", PrimOp.ARITHMETIC_SHIFT);
+        define("eq?", PrimOp.EQ);
+        define("eqv?", PrimOp.EQV);
+        define("equal?", PrimOp.EQUAL);
+        define("symbol->string", PrimOp.SYMBOL_TO_STRING);
+        define("make-string", PrimOp.MAKE_STRING);
+        define("string-length", PrimOp.STRING_LENGTH);
+        define("string-ref", PrimOp.STRING_REF);
+        define("string-set!", PrimOp.STRING_SET);
+        define("substring", PrimOp.SUBSTRING);
+        define("string-append", Variadic.STRING_APPEND.function);
+        define("string=?", Variadic.STRING_EQ.function);
+        define("string->symbol", PrimOp.STRING_TO_SYMBOL);
+        define("call/cc", Continuations.CALL_CC);
+        define("call-with-current-continuation", Continuations.CALL_CC);
+        define("raise", Exceptions.RAISE);
+        define("raise-continuable", Exceptions.RAISE_CONTINUABLE);
+        define("with-exception-handler", Exceptions.WITH_EXCEPTION_HANDLER);
+        define("dynamic-wind", Exceptions.DYNAMIC_WIND);
+        define("error", Exceptions.ERROR);
+        define("error-object?", Exceptions.IS_ERROR_OBJECT);
+        define("error-object-message", Exceptions.ERROR_OBJECT_MESSAGE);
+        define("error-object-irritants", Exceptions.ERROR_OBJECT_IRRITANTS);
+        define("cons", PrimOp.CONS);
+        define("car", PrimOp.CAR);
+        define("cdr", PrimOp.CDR);
+        define("null?", PrimOp.IS_NULL);
+        define("pair?", PrimOp.IS_PAIR);
+        define("length", PrimOp.LENGTH);
+        define("reverse", PrimOp.REVERSE);
+        define("append", Variadic.APPEND.function);
+        define("make-hash-table", PrimOp.MAKE_HASH_TABLE);
+        define("hash-table-ref", PrimOp.HASH_TABLE_REF);
+        define("hash-table-ref/default", PrimOp.HASH_TABLE_REF_DEFAULT);
+        define("hash-table-set!", PrimOp.HASH_TABLE_SET);
+        define("make-vector", PrimOp.MAKE_VECTOR);
+        define("vector", PrimOp.VECTOR);
+        define("vector-length", PrimOp.VECTOR_LENGTH);
+        define("vector-ref", PrimOp.VECTOR_REF);
+        define("vector-set!", PrimOp.VECTOR_SET);
+    }
+
+    private static void define(String name, BareFunction builtin) {
+        builtins.put(name, builtin);
+        names.putIfAbsent(builtin, name);
+        Global.named(name).setValue(builtin);
+    }
+
+    static BareFunction builtin(String name) {
+        return builtins.get(name);
+    }
+
+    // The first name the builtin was defined as.
+    static String nameOf(BareFunction builtin) {
+        return names.get(builtin);
+    }
+
+    // The global cell of name, making sure that the builtins are defined first.
+    static Global global(String name) {
+        return Global.named(name);
+    }
+}
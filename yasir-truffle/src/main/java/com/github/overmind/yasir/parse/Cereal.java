@@ -0,0 +1,577 @@
+package com.github.overmind.yasir.parse;
+
+import com.github.overmind.yasir.parse.Syntax.*;
+import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Nil;
+import com.github.overmind.yasir.value.Pair;
+import com.github.overmind.yasir.value.SchemeString;
+import com.github.overmind.yasir.value.Symbol;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A binary format for expanded programs, after yasir/cereal.py: the Syntax tree of every
+// lambda together with the results of Parser's analysis, so that loading a program skips
+// reading, expansion and analysis, and only builds the nodes.
+//
+// All numbers are unsigned LEB128 varints, except for fixnums (zigzag varints) and flonums
+// (8 bytes, big-endian). Names are indices into the symbol table, lambdas are indices into the
+// lambda table (outermost first, so main is 0), and a variable is addressed like a frame slot:
+// the number of lambdas out from the one it's used in, then its index among the owner's
+// params followed by its locals.
+//
+//   file     := "YSIR" version:uv symbols:(count:uv (length:uv utf8)*) count:uv header* lambda*
+//   header   := name:sym parent:uv(0 = none, else index + 1) flags:uv(see the L_ constants)
+//               nparams:uv nlocals:uv var*
+//   var      := name:sym flags:uv(see the V_ constants) initLambda:uv(0 = none, else index + 1)
+//   lambda   := [ncaptures:uv (depth:uv ix:uv)*, if L_FLAT_ENV] body:node
+//   node     := opcode:uv operands (see the OP_ constants)
+final class Cereal {
+    private static final byte[] MAGIC = {'Y', 'S', 'I', 'R'};
+    private static final int VERSION = 3;
+
+    // Lambda flags.
+    private static final int L_REST = 1;
+    private static final int L_NEEDS_ENV = 2;
+    private static final int L_FLAT_ENV = 4;
+    private static final int L_FRAME_CAPTURED = 8;
+
+    // Variable flags, at most one of which is set.
+    private static final int V_BOXED = 1;
+    private static final int V_KNOWN = 2;
+    private static final int V_LOCAL_FUNCTION = 4;
+
+    // Nodes.
+    private static final int OP_LIT = 0;            // datum
+    private static final int OP_REF = 1;            // depth ix
+    private static final int OP_ASSIGN = 2;         // depth ix value
+    private static final int OP_GLOBAL_REF = 3;     // name
+    private static final int OP_GLOBAL_DEFINE = 4;  // name value
+    private static final int OP_GLOBAL_SET = 5;     // name value
+    private static final int OP_IF = 6;             // cond onTrue onFalse
+    private static final int OP_SEQ = 7;            // count node*
+    private static final int OP_CALL = 8;           // argc func arg*
+    private static final int OP_TAIL_CALL = 9;      // argc func arg*
+    private static final int OP_GUARD = 10;         // body depth ix handler
+    private static final int OP_LAMBDA = 11;        // index
+
+    // Literal data.
+    private static final int D_NIL = 0;
+    private static final int D_FALSE = 1;
+    private static final int D_TRUE = 2;
+    private static final int D_FIXNUM = 3;          // zigzag
+    private static final int D_FLONUM = 4;          // 8 bytes
+    private static final int D_BIGNUM = 5;          // length two's-complement-bytes
+    private static final int D_CHAR = 6;            // code unit
+    private static final int D_STRING = 7;          // length code-unit*
+    private static final int D_SYMBOL = 8;          // name
+    private static final int D_LIST = 9;            // count datum* tail:datum
+    private static final int D_BUILTIN = 10;        // name, see Builtins.nameOf
+
+    private Cereal() {
+    }
+
+    static byte[] write(List<Lambda> lambdas) {
+        return new Writer(lambdas).write();
+    }
+
+    static List<Lambda> read(ByteBuffer in) {
+        try {
+            return new Loader(in).read();
+        } catch (BufferUnderflowException e) {
+            throw new ParseError("truncated serialized program");
+        }
+    }
+
+    private static final class Writer {
+        private final List<Lambda> lambdas;
+        private final Map<Lambda, Integer> lambdaIndices = new IdentityHashMap<>();
+        private final Map<Var, Integer> varIndices = new IdentityHashMap<>();
+        private final Map<String, Integer> symbols = new LinkedHashMap<>();
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Writer(List<Lambda> lambdas) {
+            this.lambdas = lambdas;
+            for (Lambda l : lambdas) {
+                lambdaIndices.put(l, lambdaIndices.size());
+                int ix = 0;
+                for (Var v : l.params) {
+                    varIndices.put(v, ix++);
+                }
+                for (Var v : l.locals) {
+                    varIndices.put(v, ix++);
+                }
+            }
+        }
+
+        // The symbol table goes first but is only known at the end.
+        byte[] write() {
+            uv(lambdas.size());
+            for (Lambda l : lambdas) {
+                header(l);
+            }
+            for (Lambda l : lambdas) {
+                if (l.flatEnv) {
+                    uv(l.captures.size());
+                    for (Var v : l.captures) {
+                        varRef(v, l);
+                    }
+                }
+                node(l.body, l);
+            }
+            byte[] body = out.toByteArray();
+
+            out.reset();
+            out.write(MAGIC, 0, MAGIC.length);
+            uv(VERSION);
+            uv(symbols.size());
+            for (String name : symbols.keySet()) {
+                byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+                uv(utf8.length);
+                out.write(utf8, 0, utf8.length);
+            }
+            out.write(body, 0, body.length);
+            return out.toByteArray();
+        }
+
+        private void header(Lambda l) {
+            symbol(l.name);
+            uv(l.parent == null ? 0 : lambdaIndices.get(l.parent) + 1);
+            uv((l.rest ? L_REST : 0) | (l.needsEnv ? L_NEEDS_ENV : 0) | (l.flatEnv ? L_FLAT_ENV : 0)
+                    | (l.frameCaptured ? L_FRAME_CAPTURED : 0));
+            uv(l.params.size());
+            uv(l.locals.size());
+            for (Var v : l.params) {
+                var(v);
+            }
+            for (Var v : l.locals) {
+                var(v);
+            }
+        }
+
+        private void var(Var v) {
+            symbol(v.name);
+            uv((v.boxed ? V_BOXED : 0) | (v.known ? V_KNOWN : 0) | (v.localFunction ? V_LOCAL_FUNCTION : 0));
+            uv(v.initLambda == null ? 0 : lambdaIndices.get(v.initLambda) + 1);
+        }
+
+        private void varRef(Var v, Lambda where) {
+            uv(where.depthOf(v));
+            uv(varIndices.get(v));
+        }
+
+        private void node(Node node, Lambda where) {
+            if (node instanceof Lit) {
+                uv(OP_LIT);
+                datum(((Lit) node).value);
+            } else if (node instanceof Ref) {
+                uv(OP_REF);
+                varRef(((Ref) node).var, where);
+            } else if (node instanceof Assign) {
+                Assign assign = (Assign) node;
+                uv(OP_ASSIGN);
+                varRef(assign.var, where);
+                node(assign.value, where);
+            } else if (node instanceof GlobalRef) {
+                uv(OP_GLOBAL_REF);
+                symbol(((GlobalRef) node).cell.name);
+            } else if (node instanceof GlobalAssign) {
+                GlobalAssign assign = (GlobalAssign) node;
+                uv(assign.define ? OP_GLOBAL_DEFINE : OP_GLOBAL_SET);
+                symbol(assign.cell.name);
+                node(assign.value, where);
+            } else if (node instanceof If) {
+                If anIf = (If) node;
+                uv(OP_IF);
+                node(anIf.cond, where);
+                node(anIf.onTrue, where);
+                node(anIf.onFalse, where);
+            } else if (node instanceof Seq) {
+                Node[] body = ((Seq) node).body;
+                uv(OP_SEQ);
+                uv(body.length);
+                for (Node n : body) {
+                    node(n, where);
+                }
+            } else if (node instanceof Call) {
+                Call call = (Call) node;
+                uv(call.tail ? OP_TAIL_CALL : OP_CALL);
+                uv(call.args.length);
+                node(call.func, where);
+                for (Node n : call.args) {
+                    node(n, where);
+                }
+            } else if (node instanceof Guard) {
+                Guard guard = (Guard) node;
+                uv(OP_GUARD);
+                node(guard.body, where);
+                varRef(guard.raised, where);
+                varRef(guard.continuable, where);
+                node(guard.handler, where);
+            } else if (node instanceof Lambda) {
+                uv(OP_LAMBDA);
+                uv(lambdaIndices.get(node));
+            } else {
+                throw new IllegalArgumentException("Unknown syntax node: " + node);
+            }
+        }
+
+        private void datum(Object x) {
+            if (x == Nil.INSTANCE) {
+                uv(D_NIL);
+            } else if (x instanceof Boolean) {
+                uv((Boolean) x ? D_TRUE : D_FALSE);
+            } else if (x instanceof Long) {
+                uv(D_FIXNUM);
+                long n = (Long) x;
+                uvLong((n << 1) ^ (n >> 63));
+            } else if (x instanceof Double) {
+                uv(D_FLONUM);
+                long bits = Double.doubleToRawLongBits((Double) x);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) (bits >>> shift));
+                }
+            } else if (x instanceof BigInteger) {
+                byte[] bytes = ((BigInteger) x).toByteArray();
+                uv(D_BIGNUM);
+                uv(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            } else if (x instanceof Character) {
+                uv(D_CHAR);
+                uv((Character) x);
+            } else if (x instanceof SchemeString) {
+                SchemeString s = (SchemeString) x;
+                uv(D_STRING);
+                uv(s.length());
+                for (int i = 0; i < s.length(); ++i) {
+                    uv(s.charAt(i));
+                }
+            } else if (x instanceof Symbol) {
+                uv(D_SYMBOL);
+                symbol(((Symbol) x).name());
+            } else if (x instanceof Pair) {
+                List<Object> items = new ArrayList<>();
+                Object tail = x;
+                while (tail instanceof Pair) {
+                    items.add(((Pair) tail).car());
+                    tail = ((Pair) tail).cdr;
+                }
+                uv(D_LIST);
+                uv(items.size());
+                for (Object item : items) {
+                    datum(item);
+                }
+                datum(tail);
+            } else if (x instanceof BareFunction && Builtins.nameOf((BareFunction) x) != null) {
+                uv(D_BUILTIN);
+                symbol(Builtins.nameOf((BareFunction) x));
+            } else {
+                throw new IllegalArgumentException("can't serialize literal: " + x);
+            }
+        }
+
+        private void symbol(String name) {
+            Integer ix = symbols.get(name);
+            if (ix == null) {
+                ix = symbols.size();
+                symbols.put(name, ix);
+            }
+            uv(ix);
+        }
+
+        private void uv(int n) {
+            uvLong(n & 0xffffffffL);
+        }
+
+        private void uvLong(long n) {
+            while ((n & ~0x7fL) != 0) {
+                out.write((int) ((n & 0x7f) | 0x80));
+                n >>>= 7;
+            }
+            out.write((int) n);
+        }
+    }
+
+    private static final class Loader {
+        private final ByteBuffer in;
+        private String[] symbols;
+        private final List<Lambda> lambdas = new ArrayList<>();
+        // The params followed by the locals of each lambda.
+        private final Map<Lambda, List<Var>> vars = new IdentityHashMap<>();
+
+        Loader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        List<Lambda> read() {
+            for (byte b : MAGIC) {
+                if (in.get() != b) {
+                    throw error("not a serialized program");
+                }
+            }
+            int version = uv();
+            if (version != VERSION) {
+                throw error("unsupported version " + version);
+            }
+            symbols = new String[count()];
+            for (int i = 0; i < symbols.length; ++i) {
+                byte[] utf8 = new byte[count()];
+                in.get(utf8);
+                symbols[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+
+            int count = count();
+            if (count == 0) {
+                throw error("no main lambda");
+            }
+            Map<Var, Integer> initLambdas = new IdentityHashMap<>();
+            for (int i = 0; i < count; ++i) {
+                header(initLambdas);
+            }
+            for (Map.Entry<Var, Integer> init : initLambdas.entrySet()) {
+                init.getKey().initLambda = lambda(init.getValue());
+            }
+            for (Lambda l : lambdas) {
+                for (Var v : l.locals) {
+                    if ((v.known || v.localFunction) && v.initLambda == null) {
+                        throw error(v.name + " in " + l.name + " has no function");
+                    }
+                    if (v.known && v.initLambda.needsEnv) {
+                        throw error(v.name + " in " + l.name + " is known but needs an environment");
+                    }
+                }
+            }
+            for (Lambda l : lambdas) {
+                if (l.flatEnv) {
+                    int ncaptures = count();
+                    l.captures = new ArrayList<>(ncaptures);
+                    for (int i = 0; i < ncaptures; ++i) {
+                        l.captures.add(varRef(l));
+                    }
+                }
+                l.body = node(l);
+            }
+            return lambdas;
+        }
+
+        private void header(Map<Var, Integer> initLambdas) {
+            String name = symbol();
+            int parent = uv();
+            if (parent > lambdas.size()) {
+                throw error("lambda " + lambdas.size() + " comes before its parent");
+            }
+            Lambda l = new Lambda(name, parent == 0 ? null : lambdas.get(parent - 1));
+            lambdas.add(l);
+            int flags = uv();
+            l.rest = (flags & L_REST) != 0;
+            l.needsEnv = (flags & L_NEEDS_ENV) != 0;
+            l.flatEnv = (flags & L_FLAT_ENV) != 0;
+            l.frameCaptured = (flags & L_FRAME_CAPTURED) != 0;
+            if (l.needsEnv && l.parent == null || l.flatEnv && !l.needsEnv) {
+                throw error("bad flags " + flags + " for " + name);
+            }
+            int nparams = count();
+            int nlocals = count();
+            List<Var> all = new ArrayList<>();
+            for (int i = 0; i < nparams + nlocals; ++i) {
+                Var v = new Var(symbol(), l, i < nparams);
+                int varFlags = uv();
+                if ((varFlags & (varFlags - 1)) != 0 || v.isParam && varFlags != 0) {
+                    throw error("bad flags " + varFlags + " for " + v.name + " in " + name);
+                }
+                v.boxed = (varFlags & V_BOXED) != 0;
+                v.known = (varFlags & V_KNOWN) != 0;
+                v.localFunction = (varFlags & V_LOCAL_FUNCTION) != 0;
+                int init = uv();
+                if (init != 0) {
+                    // The lambda may not have been read yet.
+                    initLambdas.put(v, init - 1);
+                }
+                (i < nparams ? l.params : l.locals).add(v);
+                all.add(v);
+            }
+            vars.put(l, all);
+        }
+
+        private Node node(Lambda where) {
+            int op = uv();
+            switch (op) {
+                case OP_LIT:
+                    return new Lit(datum());
+                case OP_REF:
+                    return new Ref(varRef(where));
+                case OP_ASSIGN: {
+                    Var v = varRef(where);
+                    return new Assign(v, node(where));
+                }
+                case OP_GLOBAL_REF:
+                    return new GlobalRef(Builtins.global(symbol()));
+                case OP_GLOBAL_DEFINE:
+                case OP_GLOBAL_SET: {
+                    String name = symbol();
+                    return new GlobalAssign(Builtins.global(name), node(where), op == OP_GLOBAL_DEFINE);
+                }
+                case OP_IF: {
+                    Node cond = node(where);
+                    Node onTrue = node(where);
+                    return new If(cond, onTrue, node(where));
+                }
+                case OP_SEQ:
+                    return new Seq(nodes(count(), where));
+                case OP_CALL:
+                case OP_TAIL_CALL: {
+                    int argc = count();
+                    Node func = node(where);
+                    return new Call(func, nodes(argc, where), op == OP_TAIL_CALL);
+                }
+                case OP_GUARD: {
+                    Node body = node(where);
+                    Var raised = varRef(where);
+                    Var continuable = varRef(where);
+                    return new Guard(body, raised, continuable, node(where));
+                }
+                case OP_LAMBDA:
+                    return lambda(uv());
+                default:
+                    throw error("unknown opcode " + op);
+            }
+        }
+
+        private Node[] nodes(int count, Lambda where) {
+            Node[] nodes = new Node[count];
+            for (int i = 0; i < count; ++i) {
+                nodes[i] = node(where);
+            }
+            return nodes;
+        }
+
+        private Object datum() {
+            int tag = uv();
+            switch (tag) {
+                case D_NIL:
+                    return Nil.INSTANCE;
+                case D_FALSE:
+                    return false;
+                case D_TRUE:
+                    return true;
+                case D_FIXNUM: {
+                    long n = uvLong();
+                    return (n >>> 1) ^ -(n & 1);
+                }
+                case D_FLONUM:
+                    return in.getDouble();
+                case D_BIGNUM: {
+                    byte[] bytes = new byte[count()];
+                    in.get(bytes);
+                    return new BigInteger(bytes);
+                }
+                case D_CHAR:
+                    return (char) uv();
+                case D_STRING: {
+                    char[] chars = new char[count()];
+                    for (int i = 0; i < chars.length; ++i) {
+                        chars[i] = (char) uv();
+                    }
+                    return SchemeString.create(new String(chars), false);
+                }
+                case D_SYMBOL:
+                    return Symbol.apply(symbol());
+                case D_LIST: {
+                    Object[] items = new Object[count()];
+                    for (int i = 0; i < items.length; ++i) {
+                        items[i] = datum();
+                    }
+                    Object list = datum();
+                    for (int i = items.length - 1; i >= 0; --i) {
+                        list = Pair.create(items[i], list);
+                    }
+                    return list;
+                }
+                case D_BUILTIN: {
+                    String name = symbol();
+                    BareFunction builtin = Builtins.builtin(name);
+                    if (builtin == null) {
+                        throw error("unknown builtin " + name);
+                    }
+                    return builtin;
+                }
+                default:
+                    throw error("unknown datum tag " + tag);
+            }
+        }
+
+        private Var varRef(Lambda where) {
+            int depth = uv();
+            Lambda owner = where;
+            for (int i = 0; i < depth; ++i) {
+                if (owner.parent == null) {
+                    throw error("variable reference out of " + where.name + " is too deep");
+                }
+                owner = owner.parent;
+            }
+            int ix = uv();
+            List<Var> all = vars.get(owner);
+            if (ix >= all.size()) {
+                throw error("no variable " + ix + " in " + owner.name);
+            }
+            return all.get(ix);
+        }
+
+        private Lambda lambda(int ix) {
+            if (ix >= lambdas.size()) {
+                throw error("no lambda " + ix);
+            }
+            return lambdas.get(ix);
+        }
+
+        private String symbol() {
+            int ix = uv();
+            if (ix >= symbols.length) {
+                throw error("no symbol " + ix);
+            }
+            return symbols[ix];
+        }
+
+        private int uv() {
+            long n = uvLong();
+            if (n > Integer.MAX_VALUE) {
+                throw error("number out of range");
+            }
+            return (int) n;
+        }
+
+        // The number of things that follow, each of which takes at least a byte: a corrupt count
+        // is caught here rather than by allocating for it.
+        private int count() {
+            int n = uv();
+            if (n > in.remaining()) {
+                throw error("count " + n + " is past the end");
+            }
+            return n;
+        }
+
+        private long uvLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = in.get();
+                result |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            throw error("varint too long");
+        }
+
+        private ParseError error(String message) {
+            return new ParseError("bad serialized program at byte " + in.position() + ": " + message);
+        }
+    }
+}
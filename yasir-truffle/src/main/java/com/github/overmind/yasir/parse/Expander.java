@@ -0,0 +1,575 @@
+package com.github.overmind.yasir.parse;
+
+import com.github.overmind.yasir.ast.Exceptions;
+import com.github.overmind.yasir.parse.SExprReader.DottedList;
+import com.github.overmind.yasir.parse.Syntax.*;
+import com.github.overmind.yasir.value.Nil;
+import com.github.overmind.yasir.value.Pair;
+import com.github.overmind.yasir.value.SchemeString;
+import com.github.overmind.yasir.value.Symbol;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns S-expressions into Syntax: expands the derived forms, resolves names to
+// variables and marks calls in tail position.
+final class Expander {
+    private static final Symbol DEFINE = Symbol.apply("define");
+    private static final Symbol BEGIN = Symbol.apply("begin");
+
+    private final List<Lambda> lambdas = new ArrayList<>();
+    // Orders lambdas and assignments as they appear in the source (see Var.defSeq).
+    private int seq;
+
+    // All the lambdas seen so far, outermost first.
+    List<Lambda> lambdas() {
+        return lambdas;
+    }
+
+    static final class Scope {
+        final Scope parent;
+        final Lambda lambda;
+        final Map<String, Var> vars = new HashMap<>();
+
+        Scope(Scope parent, Lambda lambda) {
+            this.parent = parent;
+            this.lambda = lambda;
+        }
+
+        Var lookup(String name) {
+            for (Scope s = this; s != null; s = s.parent) {
+                Var v = s.vars.get(name);
+                if (v != null) {
+                    return v;
+                }
+            }
+            return null;
+        }
+
+        Var declareLocal(String name) {
+            Var v = vars.get(name);
+            if (v == null) {
+                v = new Var(name, lambda, false);
+                vars.put(name, v);
+                lambda.locals.add(v);
+            }
+            return v;
+        }
+
+        Var declareParam(String name) {
+            if (vars.containsKey(name)) {
+                throw new ParseError("duplicate parameter: " + name);
+            }
+            Var v = new Var(name, lambda, true);
+            vars.put(name, v);
+            lambda.params.add(v);
+            return v;
+        }
+    }
+
+    Lambda expandProgram(List<Object> forms) {
+        Lambda main = new Lambda("main", null);
+        lambdas.add(main);
+        main.body = forms.isEmpty()
+                ? new Lit(Nil.INSTANCE)
+                : expandTopLevel(forms.toArray(), new Scope(null, main));
+        return main;
+    }
+
+    // Top-level defines bind global cells rather than locals of main, so that they are seen
+    // by (and can be redefined by) programs compiled later.
+    private Node expandTopLevel(Object[] forms, Scope scope) {
+        List<Object> flat = new ArrayList<>();
+        flattenBegins(forms, flat);
+        Node[] nodes = new Node[flat.size()];
+        for (int i = 0; i < nodes.length; ++i) {
+            Object form = flat.get(i);
+            if (isDefine(form)) {
+                String name = definedName((Object[]) form);
+                nodes[i] = new GlobalAssign(Builtins.global(name), definedValue((Object[]) form, name, scope), true);
+            } else {
+                nodes[i] = expand(form, scope, i == nodes.length - 1);
+            }
+        }
+        return nodes.length == 0 ? new Lit(Nil.INSTANCE) : seq(nodes);
+    }
+
+    Node expand(Object x, Scope scope, boolean tail) {
+        if (x instanceof Symbol) {
+            return ref(((Symbol) x).name(), scope);
+        } else if (x instanceof Object[]) {
+            Object[] xs = (Object[]) x;
+            if (xs.length == 0) {
+                throw new ParseError("empty application");
+            }
+            if (xs[0] instanceof Symbol) {
+                String head = ((Symbol) xs[0]).name();
+                if (scope.lookup(head) == null) {
+                    Node special = expandSpecial(head, xs, scope, tail);
+                    if (special != null) {
+                        return special;
+                    }
+                }
+            }
+            return call(expand(xs[0], scope, false), expandAll(xs, 1, scope), tail);
+        } else {
+            return new Lit(literal(x));
+        }
+    }
+
+    private Node expandSpecial(String head, Object[] xs, Scope scope, boolean tail) {
+        switch (head) {
+            case "quote":
+                checkLength(xs, 2, 2);
+                return new Lit(quoted(xs[1]));
+            case "if":
+                checkLength(xs, 3, 4);
+                return new If(expand(xs[1], scope, false),
+                        expand(xs[2], scope, tail),
+                        xs.length == 4 ? expand(xs[3], scope, tail) : new Lit(Nil.INSTANCE));
+            case "define":
+                throw new ParseError("define is only allowed at the beginning of a body");
+            case "set!": {
+                checkLength(xs, 3, 3);
+                String name = symbolName(xs[1]);
+                Var v = scope.lookup(name);
+                if (v == null) {
+                    return new GlobalAssign(Builtins.global(name), expand(xs[2], scope, false), false);
+                }
+                return assign(v, expand(xs[2], scope, false), scope);
+            }
+            case "lambda":
+                checkLength(xs, 3, -1);
+                return expandLambda("lambda", xs[1], Arrays.copyOfRange(xs, 2, xs.length), scope);
+            case "begin":
+                if (xs.length == 1) {
+                    return new Lit(Nil.INSTANCE);
+                }
+                return seq(expandAll(xs, 1, scope, tail));
+            case "let":
+                checkLength(xs, 3, -1);
+                if (xs[1] instanceof Symbol) {
+                    return expandNamedLet(xs, scope, tail);
+                }
+                return expandLet(xs, scope, tail);
+            case "let*":
+                checkLength(xs, 3, -1);
+                return expandLetStar(bindings(xs[1]), 0, Arrays.copyOfRange(xs, 2, xs.length), scope, tail);
+            case "letrec":
+            case "letrec*":
+                checkLength(xs, 3, -1);
+                return expandLetrec(xs, scope, tail);
+            case "cond":
+                return expandCond(xs, 1, scope, tail, new Lit(Nil.INSTANCE));
+            case "guard":
+                checkLength(xs, 3, -1);
+                return expandGuard(xs, scope, tail);
+            case "and":
+                return expandAnd(xs, 1, scope, tail);
+            case "or":
+                return expandOr(xs, 1, scope, tail);
+            case "when":
+            case "unless": {
+                checkLength(xs, 3, -1);
+                Node cond = expand(xs[1], scope, false);
+                Node body = seq(expandAll(xs, 2, scope, tail));
+                Node nil = new Lit(Nil.INSTANCE);
+                return head.equals("when") ? new If(cond, body, nil) : new If(cond, nil, body);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private Node expandLambda(String name, Object formals, Object[] body, Scope scope) {
+        Lambda lambda = new Lambda(name, scope.lambda);
+        lambda.seq = seq++;
+        lambdas.add(lambda);
+        Scope inner = new Scope(scope, lambda);
+        // (lambda (a b) ...), (lambda (a . rest) ...) or (lambda rest ...)
+        Object[] fixed;
+        Object rest = null;
+        if (formals instanceof Symbol) {
+            fixed = new Object[0];
+            rest = formals;
+        } else if (formals instanceof DottedList) {
+            fixed = ((DottedList) formals).items;
+            rest = ((DottedList) formals).tail;
+        } else {
+            fixed = asList(formals, "lambda parameters");
+        }
+        for (Object p : fixed) {
+            inner.declareParam(symbolName(p));
+        }
+        if (rest != null) {
+            inner.declareParam(symbolName(rest));
+            lambda.rest = true;
+        }
+        lambda.body = expandBody(body, inner, true);
+        return lambda;
+    }
+
+    // A body may start with internal defines, which are in scope of the whole body.
+    private Node expandBody(Object[] forms, Scope scope, boolean tail) {
+        List<Object> flat = new ArrayList<>();
+        flattenBegins(forms, flat);
+        if (flat.isEmpty()) {
+            throw new ParseError("empty body");
+        }
+
+        for (Object form : flat) {
+            if (isDefine(form)) {
+                scope.declareLocal(definedName((Object[]) form));
+            }
+        }
+
+        Node[] nodes = new Node[flat.size()];
+        for (int i = 0; i < nodes.length; ++i) {
+            Object form = flat.get(i);
+            boolean isLast = i == nodes.length - 1;
+            if (isDefine(form)) {
+                nodes[i] = expandDefine((Object[]) form, scope);
+            } else {
+                nodes[i] = expand(form, scope, tail && isLast);
+            }
+        }
+        return seq(nodes);
+    }
+
+    private void flattenBegins(Object[] forms, List<Object> out) {
+        for (Object form : forms) {
+            if (form instanceof Object[] && ((Object[]) form).length > 0 && ((Object[]) form)[0] == BEGIN) {
+                Object[] xs = (Object[]) form;
+                flattenBegins(Arrays.copyOfRange(xs, 1, xs.length), out);
+            } else {
+                out.add(form);
+            }
+        }
+    }
+
+    private Node expandDefine(Object[] xs, Scope scope) {
+        Var v = scope.lookup(definedName(xs));
+        return assign(v, definedValue(xs, v.name, scope), scope);
+    }
+
+    private Node definedValue(Object[] xs, String name, Scope scope) {
+        checkLength(xs, 2, -1);
+        if (xs[1] instanceof Object[] || xs[1] instanceof DottedList) {
+            // (define (name . formals) body ...)
+            return expandLambda(name, signatureFormals(xs[1]), Arrays.copyOfRange(xs, 2, xs.length), scope);
+        }
+        checkLength(xs, 2, 3);
+        return xs.length == 3 ? expandNamed(name, xs[2], scope) : new Lit(Nil.INSTANCE);
+    }
+
+    private Node expandLet(Object[] xs, Scope scope, boolean tail) {
+        Object[][] bindings = bindings(xs[1]);
+        Node[] inits = new Node[bindings.length];
+        for (int i = 0; i < bindings.length; ++i) {
+            inits[i] = expandNamed(symbolName(bindings[i][0]), bindings[i][1], scope);
+        }
+        Scope inner = new Scope(scope, scope.lambda);
+        Node[] nodes = new Node[bindings.length + 1];
+        for (int i = 0; i < bindings.length; ++i) {
+            String name = symbolName(bindings[i][0]);
+            if (inner.vars.containsKey(name)) {
+                throw new ParseError("duplicate let binding: " + name);
+            }
+            nodes[i] = assign(inner.declareLocal(name), inits[i], inner);
+        }
+        nodes[bindings.length] = expandBody(Arrays.copyOfRange(xs, 2, xs.length), inner, tail);
+        return seq(nodes);
+    }
+
+    private Node expandLetStar(Object[][] bindings, int i, Object[] body, Scope scope, boolean tail) {
+        if (i == bindings.length) {
+            return expandBody(body, new Scope(scope, scope.lambda), tail);
+        }
+        String name = symbolName(bindings[i][0]);
+        Node init = expandNamed(name, bindings[i][1], scope);
+        Scope inner = new Scope(scope, scope.lambda);
+        return seq(new Node[]{
+                assign(inner.declareLocal(name), init, inner),
+                expandLetStar(bindings, i + 1, body, inner, tail)});
+    }
+
+    private Node expandLetrec(Object[] xs, Scope scope, boolean tail) {
+        Object[][] bindings = bindings(xs[1]);
+        Scope inner = new Scope(scope, scope.lambda);
+        Var[] vars = new Var[bindings.length];
+        for (int i = 0; i < bindings.length; ++i) {
+            vars[i] = inner.declareLocal(symbolName(bindings[i][0]));
+        }
+        Node[] nodes = new Node[bindings.length + 1];
+        for (int i = 0; i < bindings.length; ++i) {
+            nodes[i] = assign(vars[i], expandNamed(vars[i].name, bindings[i][1], inner), inner);
+        }
+        nodes[bindings.length] = expandBody(Arrays.copyOfRange(xs, 2, xs.length), inner, tail);
+        return seq(nodes);
+    }
+
+    // (let name ((var init) ...) body ...): the inits are evaluated outside of name's scope.
+    private Node expandNamedLet(Object[] xs, Scope scope, boolean tail) {
+        checkLength(xs, 4, -1);
+        String name = symbolName(xs[1]);
+        Object[][] bindings = bindings(xs[2]);
+        Node[] inits = new Node[bindings.length];
+        Object[] formals = new Object[bindings.length];
+        for (int i = 0; i < bindings.length; ++i) {
+            formals[i] = bindings[i][0];
+            inits[i] = expand(bindings[i][1], scope, false);
+        }
+        Scope inner = new Scope(scope, scope.lambda);
+        Var loop = inner.declareLocal(name);
+        Node lambda = expandLambda(name, formals, Arrays.copyOfRange(xs, 3, xs.length), inner);
+        return seq(new Node[]{
+                assign(loop, lambda, inner),
+                call(ref(loop, inner), inits, tail)});
+    }
+
+    private Node expandCond(Object[] xs, int i, Scope scope, boolean tail, Node otherwise) {
+        if (i == xs.length) {
+            return otherwise;
+        }
+        Object[] clause = asList(xs[i], "cond clause");
+        if (clause.length < 2) {
+            throw new ParseError("cond clause without a body is not supported");
+        }
+        if (clause[1] == Symbol.apply("=>") && scope.lookup("=>") == null) {
+            // (test => receiver): calls receiver with the value of test if it's true.
+            if (clause.length != 3) {
+                throw new ParseError("=> must be followed by exactly one expression");
+            }
+            Var tmp = new Var("cond-tmp", scope.lambda, false);
+            scope.lambda.locals.add(tmp);
+            Node receive = call(expand(clause[2], scope, false), new Node[]{ref(tmp, scope)}, tail);
+            return seq(new Node[]{
+                    assign(tmp, expand(clause[0], scope, false), scope),
+                    new If(ref(tmp, scope), receive, expandCond(xs, i + 1, scope, tail, otherwise))});
+        }
+        Node body = seq(expandAll(clause, 1, scope, tail));
+        if (clause[0] == Symbol.apply("else") && scope.lookup("else") == null) {
+            if (i != xs.length - 1) {
+                throw new ParseError("else clause must be the last cond clause");
+            }
+            return body;
+        }
+        return new If(expand(clause[0], scope, false), body, expandCond(xs, i + 1, scope, tail, otherwise));
+    }
+
+    // The body stays inside the guard, so it's never in tail position. The clauses are
+    // evaluated once the guard is left, and re-raise if none applies.
+    private Node expandGuard(Object[] xs, Scope scope, boolean tail) {
+        Object[] spec = asList(xs[1], "guard clauses");
+        if (spec.length < 1) {
+            throw new ParseError("guard without a variable");
+        }
+        Node body = expandBody(Arrays.copyOfRange(xs, 2, xs.length), new Scope(scope, scope.lambda), false);
+        Var raised = new Var("guard-raised", scope.lambda, false);
+        Var continuable = new Var("guard-continuable", scope.lambda, false);
+        scope.lambda.locals.add(raised);
+        scope.lambda.locals.add(continuable);
+        Scope inner = new Scope(scope, scope.lambda);
+        Var v = inner.declareLocal(symbolName(spec[0]));
+        // With no clause that applies, raises it again the way it was raised.
+        Node reraise = new If(ref(continuable, inner),
+                call(new Lit(Exceptions.RAISE_CONTINUABLE), new Node[]{ref(raised, inner)}, tail),
+                call(new Lit(Exceptions.RAISE), new Node[]{ref(raised, inner)}, tail));
+        Node handler = seq(new Node[]{
+                assign(v, ref(raised, inner), inner),
+                expandCond(spec, 1, inner, tail, reraise)});
+        return new Guard(body, raised, continuable, handler);
+    }
+
+    private Node expandAnd(Object[] xs, int i, Scope scope, boolean tail) {
+        if (i == xs.length) {
+            return new Lit(true);
+        } else if (i == xs.length - 1) {
+            return expand(xs[i], scope, tail);
+        }
+        return new If(expand(xs[i], scope, false), expandAnd(xs, i + 1, scope, tail), new Lit(false));
+    }
+
+    private Node expandOr(Object[] xs, int i, Scope scope, boolean tail) {
+        if (i == xs.length) {
+            return new Lit(false);
+        } else if (i == xs.length - 1) {
+            return expand(xs[i], scope, tail);
+        }
+        Var tmp = new Var("or-tmp", scope.lambda, false);
+        scope.lambda.locals.add(tmp);
+        return seq(new Node[]{
+                assign(tmp, expand(xs[i], scope, false), scope),
+                new If(ref(tmp, scope), ref(tmp, scope), expandOr(xs, i + 1, scope, tail))});
+    }
+
+    // Expands x, naming it after the variable it is bound to if it's a lambda.
+    private Node expandNamed(String name, Object x, Scope scope) {
+        if (x instanceof Object[] && ((Object[]) x).length >= 3
+                && ((Object[]) x)[0] == Symbol.apply("lambda") && scope.lookup("lambda") == null) {
+            Object[] xs = (Object[]) x;
+            return expandLambda(name, xs[1], Arrays.copyOfRange(xs, 2, xs.length), scope);
+        }
+        return expand(x, scope, false);
+    }
+
+    private Node ref(String name, Scope scope) {
+        Var v = scope.lookup(name);
+        if (v != null) {
+            return ref(v, scope);
+        }
+        // Maybe defined later, or by another program: whether it's bound is checked when it's read.
+        return new GlobalRef(Builtins.global(name));
+    }
+
+    private Node ref(Var v, Scope scope) {
+        noteUse(v, scope.lambda);
+        v.refCount += 1;
+        return new Ref(v);
+    }
+
+    private static Node call(Node func, Node[] args, boolean tail) {
+        if (func instanceof Ref) {
+            ((Ref) func).var.callCount += 1;
+        }
+        return new Call(func, args, tail);
+    }
+
+    private Node assign(Var v, Node value, Scope scope) {
+        noteUse(v, scope.lambda);
+        v.assignCount += 1;
+        v.defSeq = seq++;
+        v.initLambda = value instanceof Lambda ? (Lambda) value : null;
+        return new Assign(v, value);
+    }
+
+    private static void noteUse(Var v, Lambda user) {
+        if (user != v.owner) {
+            v.captured = true;
+        }
+        for (Lambda l = user; l != v.owner; l = l.parent) {
+            l.free.add(v);
+        }
+    }
+
+    private Node[] expandAll(Object[] xs, int from, Scope scope) {
+        Node[] nodes = new Node[xs.length - from];
+        for (int i = from; i < xs.length; ++i) {
+            nodes[i - from] = expand(xs[i], scope, false);
+        }
+        return nodes;
+    }
+
+    // Only the last one is in tail position.
+    private Node[] expandAll(Object[] xs, int from, Scope scope, boolean tail) {
+        Node[] nodes = new Node[xs.length - from];
+        for (int i = from; i < xs.length; ++i) {
+            nodes[i - from] = expand(xs[i], scope, tail && i == xs.length - 1);
+        }
+        return nodes;
+    }
+
+    private static Node seq(Node[] nodes) {
+        return nodes.length == 1 ? nodes[0] : new Seq(nodes);
+    }
+
+    private static Object literal(Object x) {
+        if (x instanceof Long || x instanceof Double || x instanceof BigInteger || x instanceof Boolean
+                || x instanceof Character) {
+            return x;
+        } else if (x instanceof String) {
+            return SchemeString.create((String) x, false);
+        }
+        throw new ParseError("unsupported literal: " + x);
+    }
+
+    private static Object quoted(Object x) {
+        if (x instanceof Symbol) {
+            return x;
+        } else if (x instanceof Object[]) {
+            Object[] xs = (Object[]) x;
+            Object[] items = new Object[xs.length];
+            for (int i = 0; i < xs.length; ++i) {
+                items[i] = quoted(xs[i]);
+            }
+            return Pair.fromArray(items);
+        } else if (x instanceof DottedList) {
+            DottedList dotted = (DottedList) x;
+            Object list = quoted(dotted.tail);
+            for (int i = dotted.items.length - 1; i >= 0; --i) {
+                list = Pair.create(quoted(dotted.items[i]), list);
+            }
+            return list;
+        }
+        return literal(x);
+    }
+
+    private static boolean isDefine(Object form) {
+        return form instanceof Object[] && ((Object[]) form).length > 0 && ((Object[]) form)[0] == DEFINE;
+    }
+
+    private static String definedName(Object[] xs) {
+        checkLength(xs, 2, -1);
+        if (xs[1] instanceof DottedList) {
+            return symbolName(((DottedList) xs[1]).items[0]);
+        } else if (xs[1] instanceof Object[]) {
+            Object[] sig = (Object[]) xs[1];
+            if (sig.length == 0) {
+                throw new ParseError("define without a name");
+            }
+            return symbolName(sig[0]);
+        }
+        return symbolName(xs[1]);
+    }
+
+    // The formals of the lambda that (define sig ...) defines: sig without the name.
+    private static Object signatureFormals(Object sig) {
+        if (sig instanceof DottedList) {
+            DottedList dotted = (DottedList) sig;
+            if (dotted.items.length == 1) {
+                return dotted.tail;
+            }
+            return new DottedList(Arrays.copyOfRange(dotted.items, 1, dotted.items.length), dotted.tail);
+        }
+        Object[] xs = (Object[]) sig;
+        return Arrays.copyOfRange(xs, 1, xs.length);
+    }
+
+    private static Object[][] bindings(Object x) {
+        Object[] xs = asList(x, "bindings");
+        Object[][] bindings = new Object[xs.length][];
+        for (int i = 0; i < xs.length; ++i) {
+            Object[] binding = asList(xs[i], "binding");
+            if (binding.length != 2) {
+                throw new ParseError("malformed binding: " + Arrays.deepToString(binding));
+            }
+            bindings[i] = binding;
+        }
+        return bindings;
+    }
+
+    private static Object[] asList(Object x, String what) {
+        if (x instanceof Object[]) {
+            return (Object[]) x;
+        }
+        throw new ParseError("expecting " + what + ", got " + x);
+    }
+
+    private static String symbolName(Object x) {
+        if (x instanceof Symbol) {
+            return ((Symbol) x).name();
+        }
+        throw new ParseError("expecting a symbol, got " + x);
+    }
+
+    // max < 0 means no upper bound.
+    private static void checkLength(Object[] xs, int min, int max) {
+        if (xs.length < min || (max >= 0 && xs.length > max)) {
+            throw new ParseError("bad syntax: " + Arrays.deepToString(xs));
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.github.overmind.yasir.parse;
+
+public final class ParseError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ParseError(String message) {
+        super(message);
+    }
+}
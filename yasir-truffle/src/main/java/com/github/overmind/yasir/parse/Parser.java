@@ -0,0 +1,436 @@
+package com.github.overmind.yasir.parse;
+
+import com.github.overmind.yasir.ast.*;
+import com.github.overmind.yasir.parse.Syntax.*;
+import com.github.overmind.yasir.value.Arity;
+import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Global;
+import com.github.overmind.yasir.value.Nil;
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.FrameSlot;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// The front end: reads a program and compiles it into an Expr that runs the program.
+//
+// Variables are addressed lexically and live in frame slots. Locals that are both assigned
+// and used by a nested lambda are boxed (see MkLambda.BodyWrapper), the others are plain typed
+// slots. A lambda that uses variables of its enclosing lambdas evaluates to a closure, which
+// is passed to the callee as its first argument. The closure either holds copies of those
+// variables, or the materialized parent frame, which Yasir.atDepth walks (see
+// chooseEnvironments). A lambda without free variables is a constant BareFunction, and so is
+// any local variable that is only ever bound to one - calls through such variables are known
+// calls. A local function that is only ever called is not made into a closure either: its
+// calls pass the parent frame itself. Builtins and top-level definitions are global cells,
+// whose reads are constants for as long as the cells aren't assigned (see Global).
+//
+// Reading and analysis are done upfront, but the nodes of a function are only built when
+// it's first called.
+public final class Parser {
+    public static Expr compile(String source) {
+        return compile(new StringReader(source));
+    }
+
+    public static Expr compile(Reader source) {
+        return compile(new SExprReader(source).readAll());
+    }
+
+    public static Expr compile(List<Object> forms) {
+        return compileExpanded(expand(forms));
+    }
+
+    // A program written by serialize: it's already expanded and analyzed, so only the nodes
+    // are left to build.
+    public static Expr compile(ByteBuffer serialized) {
+        return build(Cereal.read(serialized));
+    }
+
+    // Maps the file rather than reading it, as most of a large program's functions are never
+    // called and so most of the file is only looked at once.
+    public static Expr load(Path serialized) throws IOException {
+        try (FileChannel channel = FileChannel.open(serialized, StandardOpenOption.READ)) {
+            return compile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // The expanded and analyzed program in the format of Cereal.
+    public static byte[] serialize(Reader source) {
+        List<Lambda> lambdas = expand(new SExprReader(source).readAll());
+        analyze(lambdas);
+        return Cereal.write(lambdas);
+    }
+
+    private static List<Lambda> expand(List<Object> forms) {
+        Expander expander = new Expander();
+        expander.expandProgram(forms);
+        return expander.lambdas();
+    }
+
+    // lambdas are outermost first, starting with main.
+    private static Expr compileExpanded(List<Lambda> lambdas) {
+        analyze(lambdas);
+        return build(lambdas);
+    }
+
+    // Decides how each variable and lambda is represented. Everything build needs is in the
+    // flags, captures and initLambda fields, which is what Cereal keeps.
+    private static void analyze(List<Lambda> lambdas) {
+        for (Lambda l : lambdas) {
+            for (Var v : l.params) {
+                if (v.assignCount != 1) {
+                    v.initLambda = null;
+                }
+            }
+            for (Var v : l.locals) {
+                if (v.assignCount != 1) {
+                    v.initLambda = null;
+                }
+            }
+        }
+        resolveKnownFunctions(lambdas);
+        for (Lambda l : lambdas) {
+            for (Var v : l.locals) {
+                v.localFunction = !v.known && v.initLambda != null && v.initLambda.parent == l
+                        && v.refCount == v.callCount;
+                if (v.localFunction) {
+                    v.initLambda.calledDirectly = true;
+                }
+                v.boxed = v.captured && v.assignCount > 1;
+            }
+        }
+        chooseEnvironments(lambdas);
+        for (Lambda l : lambdas) {
+            if (l.needsEnv && !l.flatEnv) {
+                l.parent.frameCaptured = true;
+            }
+        }
+    }
+
+    private static Expr build(List<Lambda> lambdas) {
+        Parser parser = new Parser();
+        for (Lambda l : lambdas) {
+            parser.allocate(l);
+        }
+        for (Lambda l : lambdas) {
+            parser.compileLambda(l);
+        }
+        return ApplyNode.known(lambdas.get(0).function);
+    }
+
+    // A variable is known if it's bound exactly once, to a lambda that does not need an
+    // environment. And a lambda does not need an environment if all its free variables are
+    // known. Start by assuming all candidates are known and iterate until nothing changes.
+    static void resolveKnownFunctions(List<Lambda> lambdas) {
+        List<Var> candidates = new ArrayList<>();
+        for (Lambda l : lambdas) {
+            for (Var v : l.locals) {
+                if (v.initLambda != null) {
+                    v.known = true;
+                    candidates.add(v);
+                }
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Lambda l : lambdas) {
+                l.needsEnv = false;
+                for (Var v : l.free) {
+                    if (!v.known) {
+                        l.needsEnv = true;
+                        break;
+                    }
+                }
+            }
+            for (Var v : candidates) {
+                if (v.known && v.initLambda.needsEnv) {
+                    v.known = false;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // A lambda copies its captured variables into a flat closure if they can't change after
+    // it's made: they are parameters that are never assigned, locals assigned once before the
+    // lambda, or boxes. Then its parent's frame needn't be materialized for it. Otherwise it
+    // captures its parent's frame, and reaches the variables of further lambdas through their
+    // frames, so those lambdas have to capture frames as well.
+    static void chooseEnvironments(List<Lambda> lambdas) {
+        for (Lambda l : lambdas) {
+            l.flatEnv = l.needsEnv && !l.calledDirectly;
+            for (Var v : l.free) {
+                if (!v.known && !isCopyable(v, l)) {
+                    l.flatEnv = false;
+                    break;
+                }
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Lambda l : lambdas) {
+                if (!l.needsEnv || l.flatEnv) {
+                    continue;
+                }
+                for (Var v : l.free) {
+                    if (v.known) {
+                        continue;
+                    }
+                    for (Lambda m = l.parent; m != v.owner; m = m.parent) {
+                        if (m.flatEnv) {
+                            m.flatEnv = false;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Lambda l : lambdas) {
+            if (l.flatEnv) {
+                l.captures = new ArrayList<>();
+                for (Var v : l.free) {
+                    if (!v.known) {
+                        l.captures.add(v);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isCopyable(Var v, Lambda capturer) {
+        if (v.localFunction) {
+            // Needs the frame of its owner.
+            return false;
+        }
+        if (v.boxed) {
+            return true;
+        }
+        return v.isParam ? v.assignCount == 0 : v.assignCount == 1 && v.defSeq < capturer.seq;
+    }
+
+    private void allocate(Lambda l) {
+        l.function = BareFunction.empty(l.name);
+        // Unboxed locals are read as Nil before their definition, same as boxed ones.
+        l.fd = new FrameDescriptor(Nil.INSTANCE);
+        if (l.needsEnv) {
+            l.envSlot = l.fd.addFrameSlot("<env>");
+        }
+        for (Var v : l.params) {
+            v.slot = l.fd.addFrameSlot(v);
+        }
+        for (Var v : l.locals) {
+            if (!v.known && !v.localFunction) {
+                v.slot = l.fd.addFrameSlot(v);
+            }
+        }
+    }
+
+    private void compileLambda(Lambda l) {
+        List<FrameSlot> argNames = new ArrayList<>();
+        if (l.needsEnv) {
+            argNames.add(l.envSlot);
+        }
+        int fixed = l.rest ? l.params.size() - 1 : l.params.size();
+        for (int i = 0; i < fixed; ++i) {
+            argNames.add(l.params.get(i).slot);
+        }
+        FrameSlot restSlot = l.rest ? l.params.get(fixed).slot : null;
+        FrameSlot[] localNames = boxedLocals(l);
+        // Most functions in a large program are never called. Defer building their nodes.
+        Expr body = new LazyExpr(() -> compileBody(l));
+        l.function.setTarget(MkLambda.target(l.name,
+                argNames.toArray(new FrameSlot[argNames.size()]), restSlot, localNames, body, l.fd, l.frameCaptured),
+                new Arity(l.needsEnv ? 1 : 0, fixed, 0, l.rest));
+    }
+
+    // The slots of the locals that live in boxes. Each entry to the function gets new boxes.
+    private static FrameSlot[] boxedLocals(Lambda l) {
+        List<FrameSlot> slots = new ArrayList<>();
+        for (Var v : l.locals) {
+            if (v.boxed) {
+                slots.add(v.slot);
+            }
+        }
+        return slots.toArray(new FrameSlot[slots.size()]);
+    }
+
+    private Expr compileBody(Lambda l) {
+        Expr body = compile(l.body, l);
+        if (l.selfLoop) {
+            l.resultSlot = l.fd.addFrameSlot("<result>");
+            return TailLoop.loop(body, l.resultSlot);
+        }
+        return body;
+    }
+
+    private Expr compile(Node node, Lambda where) {
+        if (node instanceof Lit) {
+            Object value = ((Lit) node).value;
+            if (value instanceof Long) {
+                return PrimOp.litL((Long) value);
+            }
+            return PrimOp.litObj(value);
+        } else if (node instanceof Ref) {
+            return compileRef(((Ref) node).var, where);
+        } else if (node instanceof Assign) {
+            Assign assign = (Assign) node;
+            if (assign.var.known || assign.var.localFunction) {
+                // The only binding, and it's not needed: every reference is resolved to the function.
+                return PrimOp.litObj(Nil.INSTANCE);
+            }
+            return compileAssign(assign.var, compile(assign.value, where), where);
+        } else if (node instanceof GlobalRef) {
+            return Globals.read(((GlobalRef) node).cell);
+        } else if (node instanceof GlobalAssign) {
+            GlobalAssign assign = (GlobalAssign) node;
+            Expr value = compile(assign.value, where);
+            return assign.define ? Globals.define(assign.cell, value) : Globals.set(assign.cell, value);
+        } else if (node instanceof If) {
+            If anIf = (If) node;
+            return new IfNode(compile(anIf.cond, where), compile(anIf.onTrue, where), compile(anIf.onFalse, where));
+        } else if (node instanceof Seq) {
+            return Begin.create(compileAll(((Seq) node).body, where));
+        } else if (node instanceof Lambda) {
+            Lambda l = (Lambda) node;
+            if (!l.needsEnv) {
+                return PrimOp.litObj(l.function);
+            } else if (l.flatEnv) {
+                Expr[] payloads = new Expr[l.captures.size()];
+                for (int i = 0; i < payloads.length; ++i) {
+                    payloads[i] = compileSlotRef(l.captures.get(i), where);
+                }
+                return Closures.alloc(l.function, payloads);
+            }
+            return Closures.captureFrame(l.function);
+        } else if (node instanceof Call) {
+            return compileCall((Call) node, where);
+        } else if (node instanceof Guard) {
+            Guard guard = (Guard) node;
+            return Exceptions.guard(compile(guard.body, where), guard.raised.slot, guard.continuable.slot,
+                    compile(guard.handler, where));
+        }
+        throw new IllegalArgumentException("Unknown syntax node: " + node);
+    }
+
+    private Expr compileRef(Var v, Lambda where) {
+        if (v.known) {
+            return PrimOp.litObj(v.initLambda.function);
+        }
+        Expr slot = compileSlotRef(v, where);
+        return v.boxed ? PrimOp.readBox(slot) : slot;
+    }
+
+    // What's stored for the variable: its value, or its box.
+    private Expr compileSlotRef(Var v, Lambda where) {
+        int depth = where.depthOf(v);
+        if (depth == 0) {
+            return Vars.read(v.slot);
+        } else if (where.flatEnv) {
+            return PrimOp.readPayload(Vars.read(where.envSlot), where.captures.indexOf(v));
+        }
+        return Vars.readNonlocal(depth, v.slot);
+    }
+
+    private Expr compileAssign(Var v, Expr value, Lambda where) {
+        if (v.boxed) {
+            return PrimOp.writeBox(compileSlotRef(v, where), value);
+        }
+        int depth = where.depthOf(v);
+        return depth == 0 ? Vars.write(v.slot, value) : Vars.writeNonlocal(depth, v.slot, value);
+    }
+
+    private Expr compileCall(Call call, Lambda where) {
+        Expr[] args = compileAll(call.args, where);
+        if (isSelfLoopCall(call, where)) {
+            where.selfLoop = true;
+            FrameSlot[] params = new FrameSlot[where.params.size()];
+            for (int i = 0; i < params.length; ++i) {
+                params[i] = where.params.get(i).slot;
+            }
+            return TailLoop.jump(params, boxedLocals(where), args);
+        }
+        if (call.func instanceof Ref && ((Ref) call.func).var.localFunction) {
+            Var v = ((Ref) call.func).var;
+            Expr[] withEnv = new Expr[args.length + 1];
+            withEnv[0] = Vars.frameAtDepth(where.depthOf(v));
+            System.arraycopy(args, 0, withEnv, 1, args.length);
+            BareFunction func = v.initLambda.function;
+            return call.tail ? ApplyNode.knownTail(func, withEnv) : ApplyNode.known(func, withEnv);
+        }
+        BareFunction known = knownFunction(call.func);
+        if (known != null && call.func instanceof Lit) {
+            Expr inlined = PrimOp.inline(known, args);
+            if (inlined != null) {
+                return inlined;
+            }
+        }
+        if (known != null) {
+            // Builtins don't grow the stack, so there is no point in trampolining them.
+            boolean tail = call.tail && !(call.func instanceof Lit);
+            return tail ? ApplyNode.knownTail(known, args) : ApplyNode.known(known, args);
+        }
+        if (call.func instanceof GlobalRef) {
+            // Bodies are compiled when first run, so this is the binding the call would see now.
+            Global cell = ((GlobalRef) call.func).cell;
+            Object value = cell.value();
+            if (cell.isStable() && value instanceof BareFunction) {
+                Expr inlined = PrimOp.inline((BareFunction) value, args);
+                if (inlined != null) {
+                    return Globals.callPrimitive(cell, (BareFunction) value, inlined, args, call.tail);
+                }
+            }
+        }
+        return compileUnknownCall(call, args, where);
+    }
+
+    private Expr compileUnknownCall(Call call, Expr[] args, Lambda where) {
+        Expr func = compile(call.func, where);
+        return call.tail ? ApplyNode.unknownTail(func, args) : ApplyNode.unknown(func, args);
+    }
+
+    // A tail call to the enclosing lambda itself can jump back to the start of its body,
+    // unless a closure may still see the frame. Calls through a variable only count when the
+    // variable is only ever bound to this lambda by its parent: then it can only hold a closure
+    // over the same frame as the current one, so the environment doesn't change either.
+    private static boolean isSelfLoopCall(Call call, Lambda where) {
+        if (!call.tail || where.frameCaptured || where.rest || call.args.length != where.params.size()) {
+            return false;
+        }
+        if (!(call.func instanceof Ref)) {
+            return false;
+        }
+        Var v = ((Ref) call.func).var;
+        return !v.isParam && v.initLambda == where && v.owner == where.parent;
+    }
+
+    private static BareFunction knownFunction(Node func) {
+        if (func instanceof Lit && ((Lit) func).value instanceof BareFunction) {
+            return (BareFunction) ((Lit) func).value;
+        } else if (func instanceof Ref && ((Ref) func).var.known) {
+            return ((Ref) func).var.initLambda.function;
+        } else if (func instanceof Lambda && !((Lambda) func).needsEnv) {
+            return ((Lambda) func).function;
+        }
+        return null;
+    }
+
+    private Expr[] compileAll(Node[] nodes, Lambda where) {
+        Expr[] exprs = new Expr[nodes.length];
+        for (int i = 0; i < nodes.length; ++i) {
+            exprs[i] = compile(nodes[i], where);
+        }
+        return exprs;
+    }
+}
@@ -0,0 +1,491 @@
+package com.github.overmind.yasir.parse;
+
+import com.github.overmind.yasir.value.Symbol;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A streaming S-expression reader. Lists are read as Object[] (and dotted lists as
+// DottedList), symbols are interned, integers are longs, decimals are doubles, strings are
+// Java Strings and characters are Java Characters. Whether the front end accepts a given datum is not the reader's business.
+public final class SExprReader {
+    public static final Object EOF = new Object() {
+        @Override
+        public String toString() {
+            return "#<eof>";
+        }
+    };
+
+    private static final Object CLOSE = new Object();
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+    private int line = 1;
+
+    private final StringBuilder token = new StringBuilder();
+    private final Symbol[] symbolCache = new Symbol[1024];
+
+    public SExprReader(Reader in) {
+        this.in = in;
+    }
+
+    public static List<Object> readAll(String source) {
+        return new SExprReader(new StringReader(source)).readAll();
+    }
+
+    public List<Object> readAll() {
+        List<Object> data = new ArrayList<>();
+        Object datum;
+        while ((datum = read()) != EOF) {
+            data.add(datum);
+        }
+        return data;
+    }
+
+    public Object read() {
+        Object datum = readItem();
+        if (datum == CLOSE) {
+            throw error("unexpected ')'");
+        }
+        return datum;
+    }
+
+    private Object readItem() {
+        int c = skipAtmosphere();
+        switch (c) {
+            case -1:
+                return EOF;
+            case '(':
+            case '[':
+                return readList();
+            case ')':
+            case ']':
+                return CLOSE;
+            case '\'':
+                return quoted("quote");
+            case '`':
+                return quoted("quasiquote");
+            case ',':
+                if (peek() == '@') {
+                    next();
+                    return quoted("unquote-splicing");
+                }
+                return quoted("unquote");
+            case '"':
+                return readString();
+            case '#':
+                return readHash();
+            default:
+                return readAtom(c);
+        }
+    }
+
+    private Object[] quoted(String name) {
+        Object datum = readItem();
+        if (datum == EOF || datum == CLOSE) {
+            throw error("expecting a datum after " + name);
+        }
+        return new Object[]{Symbol.apply(name), datum};
+    }
+
+    private Object readList() {
+        List<Object> items = new ArrayList<>();
+        while (true) {
+            Object item = readItem();
+            if (item == CLOSE) {
+                return items.toArray();
+            } else if (item == EOF) {
+                throw error("unterminated list");
+            } else if (item == Dot.INSTANCE) {
+                return readDottedTail(items);
+            }
+            items.add(item);
+        }
+    }
+
+    private DottedList readDottedTail(List<Object> items) {
+        if (items.isEmpty()) {
+            throw error("nothing before '.'");
+        }
+        Object tail = readItem();
+        if (tail == CLOSE || tail == EOF || tail == Dot.INSTANCE) {
+            throw error("expecting a datum after '.'");
+        }
+        if (readItem() != CLOSE) {
+            throw error("expecting ')' after the datum after '.'");
+        }
+        return new DottedList(items.toArray(), tail);
+    }
+
+    private String readString() {
+        token.setLength(0);
+        while (true) {
+            int c = next();
+            if (c == -1) {
+                throw error("unterminated string");
+            } else if (c == '"') {
+                return token.toString();
+            } else if (c == '\\') {
+                c = next();
+                switch (c) {
+                    case 'n': token.append('\n'); break;
+                    case 't': token.append('\t'); break;
+                    case 'r': token.append('\r'); break;
+                    case '0': token.append('\0'); break;
+                    case '\\': token.append('\\'); break;
+                    case '"': token.append('"'); break;
+                    case -1: throw error("unterminated string");
+                    default: throw error("unknown string escape: \\" + (char) c);
+                }
+            } else {
+                token.append((char) c);
+            }
+        }
+    }
+
+    private Object readHash() {
+        int c = next();
+        switch (c) {
+            case '|':
+                skipBlockComment();
+                return readItem();
+            case ';':
+                readItem();
+                return readItem();
+            case '\\':
+                return readChar();
+            default:
+                token.setLength(0);
+                token.append('#');
+                if (c != -1) {
+                    token.append((char) c);
+                }
+                readToken();
+                String name = token.toString();
+                switch (name) {
+                    case "#t":
+                    case "#true":
+                        return true;
+                    case "#f":
+                    case "#false":
+                        return false;
+                    default:
+                        throw error("unknown syntax: " + name);
+                }
+        }
+    }
+
+    private Character readChar() {
+        int c = next();
+        if (c == -1) {
+            throw error("unterminated character");
+        }
+        token.setLength(0);
+        token.append((char) c);
+        readToken();
+        if (token.length() == 1) {
+            return token.charAt(0);
+        }
+        String name = token.toString();
+        switch (name) {
+            case "space": return ' ';
+            case "newline": return '\n';
+            case "tab": return '\t';
+            case "return": return '\r';
+            case "nul":
+            case "null": return '\0';
+            default:
+                if (name.charAt(0) == 'x') {
+                    try {
+                        return (char) Integer.parseInt(name.substring(1), 16);
+                    } catch (NumberFormatException e) {
+                        // Fall through.
+                    }
+                }
+                throw error("unknown character: #\\" + name);
+        }
+    }
+
+    private Object readAtom(int first) {
+        token.setLength(0);
+        token.append((char) first);
+        readToken();
+        if (token.length() == 1 && first == '.') {
+            return Dot.INSTANCE;
+        }
+        Object number = parseNumber();
+        if (number != null) {
+            return number;
+        }
+        return intern();
+    }
+
+    // Reads the rest of the current token into `token`. Tokens don't contain newlines, so the
+    // buffer can be scanned directly.
+    private void readToken() {
+        while (true) {
+            int start = pos;
+            while (pos < limit && !isDelimiter(buf[pos])) {
+                ++pos;
+            }
+            token.append(buf, start, pos - start);
+            if (pos < limit || !fill()) {
+                return;
+            }
+        }
+    }
+
+    // Most symbols in a program are repetitions, so look them up by their characters
+    // before allocating a String for them.
+    private Symbol intern() {
+        int hash = 0;
+        int len = token.length();
+        for (int i = 0; i < len; ++i) {
+            hash = 31 * hash + token.charAt(i);
+        }
+        int ix = (hash ^ (hash >>> 16)) & (symbolCache.length - 1);
+        Symbol cached = symbolCache[ix];
+        if (cached != null && contentEquals(cached.name(), len)) {
+            return cached;
+        }
+        Symbol sym = Symbol.apply(token.toString());
+        symbolCache[ix] = sym;
+        return sym;
+    }
+
+    private boolean contentEquals(String name, int len) {
+        if (name.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; ++i) {
+            if (name.charAt(i) != token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hand-rolled for the common case: most numbers in a program are small decimal integers.
+    private Object parseNumber() {
+        int len = token.length();
+        int i = 0;
+        boolean negative = false;
+        char c = token.charAt(0);
+        if (c == '+' || c == '-') {
+            if (len == 1) {
+                return null;
+            }
+            negative = c == '-';
+            i = 1;
+        }
+        if (!isDigit(token.charAt(i)) && !(token.charAt(i) == '.' && i + 1 < len && isDigit(token.charAt(i + 1)))) {
+            return null;
+        }
+        long acc = 0;
+        for (int j = i; j < len; ++j) {
+            c = token.charAt(j);
+            if (!isDigit(c)) {
+                return parseDecimal();
+            }
+            // Accumulate negatively so that Long.MIN_VALUE can be read.
+            long next = acc * 10 - (c - '0');
+            if (acc < Long.MIN_VALUE / 10 || next > acc) {
+                return parseBigInteger();
+            }
+            acc = next;
+        }
+        if (!negative) {
+            if (acc == Long.MIN_VALUE) {
+                return parseBigInteger();
+            }
+            acc = -acc;
+        }
+        return acc;
+    }
+
+    // Only for literals that don't fit a long.
+    private Object parseBigInteger() {
+        for (int j = 1; j < token.length(); ++j) {
+            if (!isDigit(token.charAt(j))) {
+                return parseDecimal();
+            }
+        }
+        return new BigInteger(token.toString());
+    }
+
+    // Checks the syntax first: Double.parseDouble also takes Java's spellings, like 1f or 0x1p3,
+    // which are symbols here.
+    private Object parseDecimal() {
+        if (!isDecimal()) {
+            return null;
+        }
+        return Double.parseDouble(token.toString());
+    }
+
+    // [sign] (digit+ [. digit*] | . digit+) [e [sign] digit+]
+    private boolean isDecimal() {
+        int len = token.length();
+        int i = 0;
+        if (token.charAt(i) == '+' || token.charAt(i) == '-') {
+            ++i;
+        }
+        int start = i;
+        i = skipDigits(i);
+        boolean digits = i > start;
+        if (i < len && token.charAt(i) == '.') {
+            start = ++i;
+            i = skipDigits(i);
+            digits |= i > start;
+        }
+        if (!digits) {
+            return false;
+        }
+        if (i < len && (token.charAt(i) == 'e' || token.charAt(i) == 'E')) {
+            ++i;
+            if (i < len && (token.charAt(i) == '+' || token.charAt(i) == '-')) {
+                ++i;
+            }
+            start = i;
+            i = skipDigits(i);
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == len;
+    }
+
+    private int skipDigits(int i) {
+        while (i < token.length() && isDigit(token.charAt(i))) {
+            ++i;
+        }
+        return i;
+    }
+
+    private int skipAtmosphere() {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            char c = buf[pos++];
+            if (c == '\n') {
+                ++line;
+            } else if (c == ';') {
+                int d;
+                do {
+                    d = next();
+                } while (d != '\n' && d != -1);
+            } else if (!isWhitespace(c)) {
+                return c;
+            }
+        }
+    }
+
+    private void skipBlockComment() {
+        int depth = 1;
+        while (depth > 0) {
+            int c = next();
+            if (c == -1) {
+                throw error("unterminated block comment");
+            } else if (c == '|' && peek() == '#') {
+                next();
+                --depth;
+            } else if (c == '#' && peek() == '|') {
+                next();
+                ++depth;
+            }
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isDelimiter(int c) {
+        switch (c) {
+            case '(':
+            case ')':
+            case '[':
+            case ']':
+            case '"':
+            case ';':
+            case '\'':
+            case '`':
+            case ',':
+                return true;
+            default:
+                return isWhitespace(c);
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c <= ' ' ? c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f'
+                : c >= 0x80 && Character.isWhitespace(c);
+    }
+
+    private int peek() {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private int next() {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        char c = buf[pos++];
+        if (c == '\n') {
+            ++line;
+        }
+        return c;
+    }
+
+    private boolean fill() {
+        try {
+            int n = in.read(buf, 0, buf.length);
+            if (n <= 0) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        } catch (IOException e) {
+            throw new ParseError("line " + line + ": " + e.getMessage());
+        }
+    }
+
+    private ParseError error(String message) {
+        return new ParseError("line " + line + ": " + message);
+    }
+
+    // (item ... . tail), with at least one item.
+    public static final class DottedList {
+        public final Object[] items;
+        public final Object tail;
+
+        public DottedList(Object[] items, Object tail) {
+            this.items = items;
+            this.tail = tail;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (Object item : items) {
+                sb.append(item instanceof Object[] ? Arrays.deepToString((Object[]) item) : item).append(' ');
+            }
+            return sb.append(". ").append(tail).append(')').toString();
+        }
+    }
+
+    private static final class Dot {
+        static final Dot INSTANCE = new Dot();
+    }
+}
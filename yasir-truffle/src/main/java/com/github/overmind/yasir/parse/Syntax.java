@@ -0,0 +1,211 @@
+package com.github.overmind.yasir.parse;
+
+import com.github.overmind.yasir.value.BareFunction;
+import com.github.overmind.yasir.value.Global;
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.FrameSlot;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// The front end's intermediate tree: S-expressions with macros expanded and names
+// resolved to variables. Analysis results are recorded on the tree before it is
+// turned into Truffle nodes.
+final class Syntax {
+    static abstract class Node {
+    }
+
+    static final class Lit extends Node {
+        final Object value;
+
+        Lit(Object value) {
+            this.value = value;
+        }
+    }
+
+    static final class Ref extends Node {
+        final Var var;
+
+        Ref(Var var) {
+            this.var = var;
+        }
+    }
+
+    // Both define and set!.
+    static final class Assign extends Node {
+        final Var var;
+        final Node value;
+
+        Assign(Var var, Node value) {
+            this.var = var;
+            this.value = value;
+        }
+    }
+
+    // A name that isn't bound lexically: a builtin or a top-level definition, possibly
+    // of another program.
+    static final class GlobalRef extends Node {
+        final Global cell;
+
+        GlobalRef(Global cell) {
+            this.cell = cell;
+        }
+    }
+
+    // A top-level define, or a set! of a global.
+    static final class GlobalAssign extends Node {
+        final Global cell;
+        final Node value;
+        final boolean define;
+
+        GlobalAssign(Global cell, Node value, boolean define) {
+            this.cell = cell;
+            this.value = value;
+            this.define = define;
+        }
+    }
+
+    static final class If extends Node {
+        final Node cond, onTrue, onFalse;
+
+        If(Node cond, Node onTrue, Node onFalse) {
+            this.cond = cond;
+            this.onTrue = onTrue;
+            this.onFalse = onFalse;
+        }
+    }
+
+    static final class Seq extends Node {
+        final Node[] body;
+
+        Seq(Node[] body) {
+            this.body = body;
+        }
+    }
+
+    static final class Call extends Node {
+        final Node func;
+        final Node[] args;
+        final boolean tail;
+
+        Call(Node func, Node[] args, boolean tail) {
+            this.func = func;
+            this.args = args;
+            this.tail = tail;
+        }
+    }
+
+    // (guard (var clause ...) body ...): the raised object is stored in raised, and whether it
+    // was raised with raise-continuable in continuable. The handler binds var to it and runs
+    // the clauses.
+    static final class Guard extends Node {
+        final Node body;
+        final Var raised;
+        final Var continuable;
+        final Node handler;
+
+        Guard(Node body, Var raised, Var continuable, Node handler) {
+            this.body = body;
+            this.raised = raised;
+            this.continuable = continuable;
+            this.handler = handler;
+        }
+    }
+
+    static final class Lambda extends Node {
+        final String name;
+        final Lambda parent;
+        final List<Var> params = new ArrayList<>();
+        // Whether the last of params gets the rest of the arguments as a list.
+        boolean rest;
+        // Internal defines, let-bound variables and temporaries.
+        final List<Var> locals = new ArrayList<>();
+        Node body;
+
+        // Variables owned by some enclosing lambda that are used in this lambda or
+        // in the lambdas nested within.
+        final Set<Var> free = new LinkedHashSet<>();
+
+        // Position in the source, see Var.defSeq.
+        int seq;
+
+        // Whether this lambda evaluates to a closure. Lambdas without an environment are
+        // compiled into a single constant BareFunction.
+        boolean needsEnv;
+        // Whether the closure holds copies of the captured variables (a flat closure, in the
+        // order of captures) rather than the parent's frame.
+        boolean flatEnv;
+        List<Var> captures;
+        // Set when the lambda is the value of a local function, which gets its parent's frame.
+        boolean calledDirectly;
+        BareFunction function;
+        FrameDescriptor fd;
+        FrameSlot envSlot;
+        // Set when some closure made by this lambda sees its frame.
+        boolean frameCaptured;
+        // Set when the body has a tail call to this lambda that is compiled into a jump.
+        // The loop's result goes through resultSlot.
+        boolean selfLoop;
+        FrameSlot resultSlot;
+
+        Lambda(String name, Lambda parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        // Number of lexical links between this lambda and the owner of var.
+        int depthOf(Var var) {
+            int depth = 0;
+            for (Lambda l = this; l != var.owner; l = l.parent) {
+                ++depth;
+            }
+            return depth;
+        }
+
+        @Override
+        public String toString() {
+            return "#<Lambda " + name + ">";
+        }
+    }
+
+    static final class Var {
+        final String name;
+        final Lambda owner;
+        final boolean isParam;
+
+        int assignCount;
+        // Position of the last assignment in the source. A variable that is only assigned once,
+        // before a lambda, holds its final value by the time that lambda is evaluated.
+        int defSeq;
+        // Used by a lambda other than its owner.
+        boolean captured;
+        // Captured and assigned after its definition: lives in a Box shared with the closures.
+        boolean boxed;
+        // Number of references, and how many of them are the function of a call.
+        int refCount;
+        int callCount;
+        // The lambda this variable is initialized with, if it's initialized with one. Analysis
+        // drops it unless that is the only assignment.
+        Lambda initLambda;
+        // Set when the variable is always bound to initLambda's constant function.
+        boolean known;
+        // Set when the variable is always bound to initLambda, which needs an environment, and
+        // is only ever called. Such a closure never escapes, so it's not made at all: calls
+        // pass the parent's frame directly.
+        boolean localFunction;
+        FrameSlot slot;
+
+        Var(String name, Lambda owner, boolean isParam) {
+            this.name = name;
+            this.owner = owner;
+            this.isParam = isParam;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.overmind.yasir.value;
+
+// How many arguments a function takes: the required ones, then up to `optional` more, then
+// any number if it takes rest arguments. A closure's function also gets the closure itself
+// first (see Closure), which is counted by `hidden` rather than by the others.
+public final class Arity {
+    // For functions that check their arguments themselves, if at all.
+    public static final Arity ANY = new Arity(0, 0, 0, true);
+
+    public final int hidden;
+    public final int required;
+    public final int optional;
+    public final boolean rest;
+
+    public Arity(int hidden, int required, int optional, boolean rest) {
+        this.hidden = hidden;
+        this.required = required;
+        this.optional = optional;
+        this.rest = rest;
+    }
+
+    public static Arity fixed(int n) {
+        return new Arity(0, n, 0, false);
+    }
+
+    public static Arity between(int min, int max) {
+        return new Arity(0, min, max - min, false);
+    }
+
+    public static Arity atLeast(int n) {
+        return new Arity(0, n, 0, true);
+    }
+
+    // argc counts the hidden arguments as well.
+    public boolean accepts(int argc) {
+        int n = argc - hidden;
+        return n >= required && (rest || n <= required + optional);
+    }
+
+    @Override
+    public String toString() {
+        if (rest) {
+            return "at least " + required;
+        } else if (optional == 0) {
+            return Integer.toString(required);
+        }
+        return required + " to " + (required + optional);
+    }
+}
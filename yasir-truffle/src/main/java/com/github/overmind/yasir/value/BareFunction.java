@@ -3,20 +3,29 @@ package com.github.overmind.yasir.value;
 import com.oracle.truffle.api.Assumption;
 import com.oracle.truffle.api.CallTarget;
 import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.frame.MaterializedFrame;
 import com.oracle.truffle.api.utilities.CyclicAssumption;
 
 public final class BareFunction {
     private CallTarget target;
     private final String name;
     private final CyclicAssumption targetNotChanged;
+    // Belongs to the target: every BareFunction of a target has the same arity, so that call
+    // sites can cache it along with the target.
+    private Arity arity;
 
     public static BareFunction empty(String name) {
         return new BareFunction(null, name);
     }
 
     public BareFunction(CallTarget target, String name) {
+        this(target, name, Arity.ANY);
+    }
+
+    public BareFunction(CallTarget target, String name, Arity arity) {
         this.target = target;
         this.name = name;
+        this.arity = arity;
         targetNotChanged = new CyclicAssumption("BareFunction " + name + " not changed");
     }
 
@@ -33,8 +42,17 @@ public final class BareFunction {
         return targetNotChanged.getAssumption();
     }
 
+    public Arity arity() {
+        return arity;
+    }
+
     public void setTarget(RootCallTarget target) {
+        setTarget(target, Arity.ANY);
+    }
+
+    public void setTarget(RootCallTarget target, Arity arity) {
         this.target = target;
+        this.arity = arity;
         targetNotChanged.invalidate();
     }
 
@@ -43,6 +61,10 @@ public final class BareFunction {
     }
 
     public Closure withPayloads(Object[] payloads) {
-        return new Closure(this, payloads);
+        return FlatClosure.create(this, payloads);
+    }
+
+    public Closure withFrame(MaterializedFrame frame) {
+        return new FrameClosure(this, frame);
     }
 }
@@ -1,21 +1,17 @@
 package com.github.overmind.yasir.value;
 
-import com.oracle.truffle.api.frame.MaterializedFrame;
-
+// A function together with the values it captured. The function gets the closure as its
+// first argument. This class itself captures nothing; see FrameClosure and FlatClosure for
+// the two ways to capture something.
 public class Closure {
     public final BareFunction bareFunction;
-    private final Object payloads;
 
-    public Closure(BareFunction bareFunction, Object[] payloads) {
+    public Closure(BareFunction bareFunction) {
         this.bareFunction = bareFunction;
-        this.payloads = payloads;
-    }
-
-    public Object[] payloadsAsArray() {
-        return (Object[]) payloads;
     }
 
-    public MaterializedFrame payloadsAsMatFrame() {
-        return (MaterializedFrame) payloads;
+    @Override
+    public String toString() {
+        return "#<Closure " + bareFunction.name() + ">";
     }
 }
@@ -0,0 +1,25 @@
+package com.github.overmind.yasir.value;
+
+// The continuation of a call/cc, as a closure over the primitive that resumes it. Only escapes
+// are supported: it can be invoked while the call/cc that made it is still running, which
+// unwinds the stack back to that call/cc. Once the call/cc has returned, it is dead.
+public final class Continuation extends Closure {
+    private boolean live = true;
+
+    public Continuation(BareFunction resume) {
+        super(resume);
+    }
+
+    public boolean isLive() {
+        return live;
+    }
+
+    public void kill() {
+        live = false;
+    }
+
+    @Override
+    public String toString() {
+        return "#<continuation>";
+    }
+}
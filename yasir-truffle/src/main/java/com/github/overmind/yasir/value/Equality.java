@@ -0,0 +1,87 @@
+package com.github.overmind.yasir.value;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import java.math.BigInteger;
+
+// The three equivalences and hashes that agree with them. Values that are boxed anew all the
+// time (fixnums, booleans, characters) are eq? by value; eqv? adds the other numbers, and
+// equal? compares strings, pairs and vectors by their contents.
+public final class Equality {
+    private Equality() {
+    }
+
+    public static boolean eq(Object a, Object b) {
+        return a == b || (a instanceof Long || a instanceof Boolean || a instanceof Character) && a.equals(b);
+    }
+
+    public static boolean eqv(Object a, Object b) {
+        return eq(a, b) || (a instanceof Double || a instanceof BigInteger) && a.equals(b);
+    }
+
+    @TruffleBoundary
+    public static boolean equal(Object a, Object b) {
+        while (a instanceof Pair && b instanceof Pair) {
+            if (!equal(((Pair) a).car(), ((Pair) b).car())) {
+                return false;
+            }
+            a = ((Pair) a).cdr;
+            b = ((Pair) b).cdr;
+        }
+        if (a instanceof SchemeString && b instanceof SchemeString) {
+            return SchemeString.contentEquals((SchemeString) a, (SchemeString) b);
+        } else if (a instanceof Vector && b instanceof Vector) {
+            Vector va = (Vector) a;
+            Vector vb = (Vector) b;
+            if (va.length() != vb.length()) {
+                return false;
+            }
+            for (int i = 0; i < va.length(); ++i) {
+                if (!equal(va.get(i), vb.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return eqv(a, b);
+    }
+
+    public static int eqHash(Object x) {
+        return x instanceof Long || x instanceof Boolean || x instanceof Character || x instanceof Symbol
+                ? x.hashCode() : System.identityHashCode(x);
+    }
+
+    public static int eqvHash(Object x) {
+        return x instanceof Double || x instanceof BigInteger ? x.hashCode() : eqHash(x);
+    }
+
+    // Only looks at the first few elements of long lists and vectors.
+    @TruffleBoundary
+    public static int equalHash(Object x) {
+        int h = 1;
+        int budget = 16;
+        while (x instanceof Pair && budget-- > 0) {
+            h = 31 * h + equalHash(((Pair) x).car());
+            x = ((Pair) x).cdr;
+        }
+        if (x instanceof Pair) {
+            return h;
+        } else if (x instanceof SchemeString) {
+            SchemeString s = (SchemeString) x;
+            int n = Math.min(s.length(), 32);
+            h = 31 * h + s.length();
+            for (int i = 0; i < n; ++i) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h;
+        } else if (x instanceof Vector) {
+            Vector v = (Vector) x;
+            h = 31 * h + v.length();
+            for (int i = 0; i < Math.min(v.length(), budget); ++i) {
+                h = 31 * h + equalHash(v.get(i));
+            }
+            return h;
+        }
+        return 31 * h + eqvHash(x);
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.overmind.yasir.value;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+// What (error message irritant ...) raises, and what the interpreter raises for errors a
+// program can handle: a message and a list of the objects involved.
+public final class ErrorObject {
+    // A string, if error was used as intended.
+    public final Object message;
+    public final Object irritants;
+
+    public ErrorObject(Object message, Object irritants) {
+        this.message = message;
+        this.irritants = irritants;
+    }
+
+    @TruffleBoundary
+    public static ErrorObject create(String message, Object... irritants) {
+        return new ErrorObject(SchemeString.create(message, false), Pair.fromArray(irritants));
+    }
+
+    @Override
+    @TruffleBoundary
+    public String toString() {
+        StringBuilder sb = new StringBuilder("#<error ").append(message);
+        for (Object xs = irritants; xs instanceof Pair; xs = ((Pair) xs).cdr) {
+            sb.append(' ').append(((Pair) xs).car());
+        }
+        return sb.append('>').toString();
+    }
+}
@@ -0,0 +1,564 @@
+package com.github.overmind.yasir.value;
+
+// Closures with their captured values inline. There's one class per layout, that is, per
+// choice of which of the first MAX_INLINE payloads are unboxed longs, named after it (R for
+// a reference, L for a long, payload 0 first). Each layout extends the one for its first
+// n - 1 payloads with a single field of the right type and handles that index, passing the
+// others up. Past MAX_INLINE, payloads are references and the extra ones go in an array.
+//
+// Readers cache the exact class (see PrimOp.ReadClosurePayload), so the accessors are
+// direct calls, and the index is expected to be a compilation constant, so the chain of
+// comparisons folds away.
+public abstract class FlatClosure extends Closure {
+    public static final int MAX_INLINE = 3;
+
+    FlatClosure(BareFunction bareFunction) {
+        super(bareFunction);
+    }
+
+    public boolean isLong(int ix) {
+        return false;
+    }
+
+    public Object get(int ix) {
+        throw new IndexOutOfBoundsException("No payload " + ix);
+    }
+
+    // Payload ix must be stored as a long.
+    public long getLong(int ix) {
+        throw new IndexOutOfBoundsException("No unboxed payload " + ix);
+    }
+
+    // Unboxes the value if payload ix is stored as a long.
+    public void set(int ix, Object value) {
+        throw new IndexOutOfBoundsException("No payload " + ix);
+    }
+
+    // Payload ix must be stored as a long.
+    public void setLong(int ix, long value) {
+        throw new IndexOutOfBoundsException("No unboxed payload " + ix);
+    }
+
+    // Bit i of longPayloads is set if payload i is to be stored as a long. It must be 0 for
+    // more than MAX_INLINE payloads.
+    public static FlatClosure create(BareFunction bareFunction, int count, int longPayloads) {
+        if (count > MAX_INLINE) {
+            assert longPayloads == 0;
+            return new Many(bareFunction, count - MAX_INLINE);
+        }
+        switch ((1 << count) | longPayloads) {
+            case 0b1_0:
+                return new R(bareFunction);
+            case 0b1_1:
+                return new L(bareFunction);
+            case 0b1_00:
+                return new RR(bareFunction);
+            case 0b1_01:
+                return new LR(bareFunction);
+            case 0b1_10:
+                return new RL(bareFunction);
+            case 0b1_11:
+                return new LL(bareFunction);
+            case 0b1_000:
+                return new RRR(bareFunction);
+            case 0b1_001:
+                return new LRR(bareFunction);
+            case 0b1_010:
+                return new RLR(bareFunction);
+            case 0b1_011:
+                return new LLR(bareFunction);
+            case 0b1_100:
+                return new RRL(bareFunction);
+            case 0b1_101:
+                return new LRL(bareFunction);
+            case 0b1_110:
+                return new RLL(bareFunction);
+            case 0b1_111:
+                return new LLL(bareFunction);
+            default:
+                throw new IllegalArgumentException("No layout for " + count + " payloads");
+        }
+    }
+
+    // Stores the Longs among the payloads unboxed, if there are few enough payloads.
+    public static Closure create(BareFunction bareFunction, Object[] payloads) {
+        if (payloads.length == 0) {
+            return new Closure(bareFunction);
+        }
+        int longPayloads = 0;
+        for (int i = 0; i < payloads.length && payloads.length <= MAX_INLINE; ++i) {
+            if (payloads[i] instanceof Long) {
+                longPayloads |= 1 << i;
+            }
+        }
+        FlatClosure c = create(bareFunction, payloads.length, longPayloads);
+        for (int i = 0; i < payloads.length; ++i) {
+            c.set(i, payloads[i]);
+        }
+        return c;
+    }
+
+    static class R extends FlatClosure {
+        Object p0;
+
+        R(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 0 ? p0 : super.get(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 0) {
+                p0 = value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+    }
+
+    static class L extends FlatClosure {
+        long p0;
+
+        L(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public boolean isLong(int ix) {
+            return ix == 0 || super.isLong(ix);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 0 ? p0 : super.get(ix);
+        }
+
+        @Override
+        public long getLong(int ix) {
+            return ix == 0 ? p0 : super.getLong(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 0) {
+                p0 = (long) value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+
+        @Override
+        public void setLong(int ix, long value) {
+            if (ix == 0) {
+                p0 = value;
+            } else {
+                super.setLong(ix, value);
+            }
+        }
+    }
+
+    static class RR extends R {
+        Object p1;
+
+        RR(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 1 ? p1 : super.get(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 1) {
+                p1 = value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+    }
+
+    static class LR extends L {
+        Object p1;
+
+        LR(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 1 ? p1 : super.get(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 1) {
+                p1 = value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+    }
+
+    static class RL extends R {
+        long p1;
+
+        RL(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public boolean isLong(int ix) {
+            return ix == 1 || super.isLong(ix);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 1 ? p1 : super.get(ix);
+        }
+
+        @Override
+        public long getLong(int ix) {
+            return ix == 1 ? p1 : super.getLong(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 1) {
+                p1 = (long) value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+
+        @Override
+        public void setLong(int ix, long value) {
+            if (ix == 1) {
+                p1 = value;
+            } else {
+                super.setLong(ix, value);
+            }
+        }
+    }
+
+    static class LL extends L {
+        long p1;
+
+        LL(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public boolean isLong(int ix) {
+            return ix == 1 || super.isLong(ix);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 1 ? p1 : super.get(ix);
+        }
+
+        @Override
+        public long getLong(int ix) {
+            return ix == 1 ? p1 : super.getLong(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 1) {
+                p1 = (long) value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+
+        @Override
+        public void setLong(int ix, long value) {
+            if (ix == 1) {
+                p1 = value;
+            } else {
+                super.setLong(ix, value);
+            }
+        }
+    }
+
+    static class RRR extends RR {
+        Object p2;
+
+        RRR(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 2 ? p2 : super.get(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 2) {
+                p2 = value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+    }
+
+    static final class LRR extends LR {
+        Object p2;
+
+        LRR(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 2 ? p2 : super.get(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 2) {
+                p2 = value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+    }
+
+    static final class RLR extends RL {
+        Object p2;
+
+        RLR(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 2 ? p2 : super.get(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 2) {
+                p2 = value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+    }
+
+    static final class LLR extends LL {
+        Object p2;
+
+        LLR(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 2 ? p2 : super.get(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 2) {
+                p2 = value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+    }
+
+    static final class RRL extends RR {
+        long p2;
+
+        RRL(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public boolean isLong(int ix) {
+            return ix == 2 || super.isLong(ix);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 2 ? p2 : super.get(ix);
+        }
+
+        @Override
+        public long getLong(int ix) {
+            return ix == 2 ? p2 : super.getLong(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 2) {
+                p2 = (long) value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+
+        @Override
+        public void setLong(int ix, long value) {
+            if (ix == 2) {
+                p2 = value;
+            } else {
+                super.setLong(ix, value);
+            }
+        }
+    }
+
+    static final class LRL extends LR {
+        long p2;
+
+        LRL(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public boolean isLong(int ix) {
+            return ix == 2 || super.isLong(ix);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 2 ? p2 : super.get(ix);
+        }
+
+        @Override
+        public long getLong(int ix) {
+            return ix == 2 ? p2 : super.getLong(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 2) {
+                p2 = (long) value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+
+        @Override
+        public void setLong(int ix, long value) {
+            if (ix == 2) {
+                p2 = value;
+            } else {
+                super.setLong(ix, value);
+            }
+        }
+    }
+
+    static final class RLL extends RL {
+        long p2;
+
+        RLL(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public boolean isLong(int ix) {
+            return ix == 2 || super.isLong(ix);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 2 ? p2 : super.get(ix);
+        }
+
+        @Override
+        public long getLong(int ix) {
+            return ix == 2 ? p2 : super.getLong(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 2) {
+                p2 = (long) value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+
+        @Override
+        public void setLong(int ix, long value) {
+            if (ix == 2) {
+                p2 = value;
+            } else {
+                super.setLong(ix, value);
+            }
+        }
+    }
+
+    static final class LLL extends LL {
+        long p2;
+
+        LLL(BareFunction bareFunction) {
+            super(bareFunction);
+        }
+
+        @Override
+        public boolean isLong(int ix) {
+            return ix == 2 || super.isLong(ix);
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix == 2 ? p2 : super.get(ix);
+        }
+
+        @Override
+        public long getLong(int ix) {
+            return ix == 2 ? p2 : super.getLong(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix == 2) {
+                p2 = (long) value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+
+        @Override
+        public void setLong(int ix, long value) {
+            if (ix == 2) {
+                p2 = value;
+            } else {
+                super.setLong(ix, value);
+            }
+        }
+    }
+
+    static final class Many extends RRR {
+        final Object[] rest;
+
+        Many(BareFunction bareFunction, int restCount) {
+            super(bareFunction);
+            rest = new Object[restCount];
+        }
+
+        @Override
+        public Object get(int ix) {
+            return ix >= MAX_INLINE ? rest[ix - MAX_INLINE] : super.get(ix);
+        }
+
+        @Override
+        public void set(int ix, Object value) {
+            if (ix >= MAX_INLINE) {
+                rest[ix - MAX_INLINE] = value;
+            } else {
+                super.set(ix, value);
+            }
+        }
+    }
+}
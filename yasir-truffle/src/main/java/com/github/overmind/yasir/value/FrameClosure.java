@@ -0,0 +1,13 @@
+package com.github.overmind.yasir.value;
+
+import com.oracle.truffle.api.frame.MaterializedFrame;
+
+// Captures the whole frame it was created in.
+public final class FrameClosure extends Closure {
+    public final MaterializedFrame frame;
+
+    public FrameClosure(BareFunction bareFunction, MaterializedFrame frame) {
+        super(bareFunction);
+        this.frame = frame;
+    }
+}
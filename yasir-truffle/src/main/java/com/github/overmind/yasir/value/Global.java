@@ -0,0 +1,84 @@
+package com.github.overmind.yasir.value;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.utilities.CyclicAssumption;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A top-level variable. Most globals are bound once and never assigned again (builtins,
+// top-level functions), so reads fold the value into a constant that depends on the cell's
+// assumption, and assigning the cell invalidates only the code that folded it. A global that
+// keeps changing isn't worth recompiling for: after a few changes, it's read like a field.
+public final class Global {
+    private static final int MAX_CHANGES = 4;
+
+    private static final ConcurrentHashMap<String, Global> table = new ConcurrentHashMap<>();
+
+    public final String name;
+    // Null while unbound.
+    private Object value;
+    private final CyclicAssumption unchanged;
+    private int changes;
+    private boolean stable = true;
+
+    public Global(String name) {
+        this.name = name;
+        unchanged = new CyclicAssumption("Global " + name + " unchanged");
+    }
+
+    // The cell of the top-level environment with this name. It's created unbound.
+    public static Global named(String name) {
+        Global cell = table.get(name);
+        return cell != null ? cell : table.computeIfAbsent(name, Global::new);
+    }
+
+    // Every cell named so far.
+    public static Collection<Global> all() {
+        return table.values();
+    }
+
+    public Object value() {
+        return value;
+    }
+
+    public boolean isBound() {
+        return value != null;
+    }
+
+    // Whether reads may fold the value, as long as assumption() holds.
+    public boolean isStable() {
+        return stable;
+    }
+
+    public Assumption assumption() {
+        return unchanged.getAssumption();
+    }
+
+    public void setValue(Object newValue) {
+        if (stable) {
+            changeStable(newValue);
+        } else {
+            value = newValue;
+        }
+    }
+
+    // Binding the cell for the first time doesn't count as a change: nothing could have folded it.
+    @TruffleBoundary
+    private void changeStable(Object newValue) {
+        if (value == newValue) {
+            return;
+        }
+        if (value != null && ++changes > MAX_CHANGES) {
+            stable = false;
+        }
+        value = newValue;
+        unchanged.invalidate();
+    }
+
+    @Override
+    public String toString() {
+        return "#<Global " + name + ">";
+    }
+}
@@ -0,0 +1,227 @@
+package com.github.overmind.yasir.value;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+// Open-addressing hash tables with linear probing, kept at most half full. Like Vector, a
+// table picks its key storage from what it holds: a long[] while every key is a fixnum,
+// a Symbol[] (hashed on the symbol's precomputed hash, compared by identity) while every
+// key is a symbol, and an Object[] hashed and compared by the table's equivalence otherwise.
+// The first key of another kind migrates the table to Object[] keys. All three equivalences
+// agree on fixnums and symbols, so the specialized storage works for any table.
+//
+// A slot is free while its value is null. The get methods return null for a missing key.
+public final class HashTable {
+    public enum Kind {
+        EQ, EQV, EQUAL
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Kind kind;
+    // Null until the first key comes in.
+    private Object keys;
+    private Object[] values;
+    private int size;
+
+    public HashTable(Kind kind) {
+        this.kind = kind;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isLongKeyed() {
+        return keys instanceof long[];
+    }
+
+    public boolean isSymbolKeyed() {
+        return keys instanceof Symbol[];
+    }
+
+    // Whether getLong and putLong can be used, which an empty table also allows.
+    public boolean takesLongKeys() {
+        return keys == null || keys instanceof long[];
+    }
+
+    public boolean takesSymbolKeys() {
+        return keys == null || keys instanceof Symbol[];
+    }
+
+    public Object getLong(long key) {
+        if (keys == null) {
+            return null;
+        }
+        long[] ks = (long[]) keys;
+        int mask = ks.length - 1;
+        for (int i = mix(Long.hashCode(key)) & mask; ; i = (i + 1) & mask) {
+            Object v = values[i];
+            if (v == null || ks[i] == key) {
+                return v;
+            }
+        }
+    }
+
+    public void putLong(long key, Object value) {
+        if (keys == null) {
+            allocate(new long[INITIAL_CAPACITY]);
+        }
+        long[] ks = (long[]) keys;
+        int mask = ks.length - 1;
+        for (int i = mix(Long.hashCode(key)) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == null) {
+                ks[i] = key;
+                values[i] = value;
+                grewBy1();
+                return;
+            } else if (ks[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+    }
+
+    public Object getSymbol(Symbol key) {
+        if (keys == null) {
+            return null;
+        }
+        Symbol[] ks = (Symbol[]) keys;
+        int mask = ks.length - 1;
+        for (int i = mix(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+            Symbol k = ks[i];
+            if (k == null || k == key) {
+                return values[i];
+            }
+        }
+    }
+
+    public void putSymbol(Symbol key, Object value) {
+        if (keys == null) {
+            allocate(new Symbol[INITIAL_CAPACITY]);
+        }
+        Symbol[] ks = (Symbol[]) keys;
+        int mask = ks.length - 1;
+        for (int i = mix(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+            Symbol k = ks[i];
+            if (k == null) {
+                ks[i] = key;
+                values[i] = value;
+                grewBy1();
+                return;
+            } else if (k == key) {
+                values[i] = value;
+                return;
+            }
+        }
+    }
+
+    // The generic path, for any key and any key storage.
+    @TruffleBoundary
+    public Object get(Object key) {
+        if (keys == null) {
+            return null;
+        } else if (isLongKeyed()) {
+            return key instanceof Long ? getLong((long) key) : null;
+        } else if (isSymbolKeyed()) {
+            return key instanceof Symbol ? getSymbol((Symbol) key) : null;
+        }
+        Object[] ks = (Object[]) keys;
+        int mask = ks.length - 1;
+        for (int i = mix(hash(key)) & mask; ; i = (i + 1) & mask) {
+            Object k = ks[i];
+            if (k == null || equiv(k, key)) {
+                return values[i];
+            }
+        }
+    }
+
+    @TruffleBoundary
+    public void put(Object key, Object value) {
+        if (keys == null) {
+            allocate(key instanceof Long ? new long[INITIAL_CAPACITY]
+                    : key instanceof Symbol ? new Symbol[INITIAL_CAPACITY] : new Object[INITIAL_CAPACITY]);
+        }
+        if (isLongKeyed() && key instanceof Long) {
+            putLong((long) key, value);
+            return;
+        } else if (isSymbolKeyed() && key instanceof Symbol) {
+            putSymbol((Symbol) key, value);
+            return;
+        } else if (isLongKeyed() || isSymbolKeyed()) {
+            rehash(values.length, true);
+        }
+        Object[] ks = (Object[]) keys;
+        int mask = ks.length - 1;
+        for (int i = mix(hash(key)) & mask; ; i = (i + 1) & mask) {
+            Object k = ks[i];
+            if (k == null) {
+                ks[i] = key;
+                values[i] = value;
+                grewBy1();
+                return;
+            } else if (equiv(k, key)) {
+                values[i] = value;
+                return;
+            }
+        }
+    }
+
+    private void grewBy1() {
+        if (++size * 2 > values.length) {
+            rehash(values.length * 2, false);
+        }
+    }
+
+    private void allocate(Object newKeys) {
+        keys = newKeys;
+        values = new Object[INITIAL_CAPACITY];
+    }
+
+    @TruffleBoundary
+    private void rehash(int capacity, boolean generic) {
+        Object oldKeys = keys;
+        Object[] oldValues = values;
+        keys = generic || oldKeys.getClass() == Object[].class ? new Object[capacity]
+                : oldKeys instanceof long[] ? new long[capacity] : new Symbol[capacity];
+        values = new Object[capacity];
+        size = 0;
+        for (int i = 0; i < oldValues.length; ++i) {
+            if (oldValues[i] != null) {
+                Object k = oldKeys instanceof long[] ? ((long[]) oldKeys)[i] : ((Object[]) oldKeys)[i];
+                put(k, oldValues[i]);
+            }
+        }
+    }
+
+    private int hash(Object key) {
+        switch (kind) {
+            case EQ:
+                return Equality.eqHash(key);
+            case EQV:
+                return Equality.eqvHash(key);
+            default:
+                return Equality.equalHash(key);
+        }
+    }
+
+    private boolean equiv(Object a, Object b) {
+        switch (kind) {
+            case EQ:
+                return Equality.eq(a, b);
+            case EQV:
+                return Equality.eqv(a, b);
+            default:
+                return Equality.equal(a, b);
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "#<hash-table " + size + ">";
+    }
+}
@@ -5,4 +5,9 @@ public final class Nil {
     }
 
     public static final Nil INSTANCE = new Nil();
+
+    @Override
+    public String toString() {
+        return "()";
+    }
 }
@@ -0,0 +1,22 @@
+package com.github.overmind.yasir.value;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import java.math.BigInteger;
+
+public final class Numbers {
+    private Numbers() {
+    }
+
+    // A bignum result that fits a fixnum is turned back into one, so that code that only
+    // briefly overflows gets back onto the long specializations.
+    @TruffleBoundary
+    public static Object normalize(BigInteger value) {
+        return value.bitLength() < Long.SIZE ? (Object) value.longValue() : value;
+    }
+
+    @TruffleBoundary
+    public static double toDouble(BigInteger value) {
+        return value.doubleValue();
+    }
+}
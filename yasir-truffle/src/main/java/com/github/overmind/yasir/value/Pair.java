@@ -0,0 +1,117 @@
+package com.github.overmind.yasir.value;
+
+import com.github.overmind.yasir.ast.Exceptions;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+// Pairs come in two shapes: LongPair keeps its car as an unboxed long, which is what lists of
+// fixnums are made of, and ObjectPair takes anything else. Both are three words with the
+// header. The cdr is always a reference, and the empty list is Nil.
+public abstract class Pair {
+    public final Object cdr;
+
+    Pair(Object cdr) {
+        this.cdr = cdr;
+    }
+
+    public abstract Object car();
+
+    public static Pair create(Object car, Object cdr) {
+        return car instanceof Long ? new LongPair((long) car, cdr) : new ObjectPair(car, cdr);
+    }
+
+    public static final class LongPair extends Pair {
+        public final long car;
+
+        public LongPair(long car, Object cdr) {
+            super(cdr);
+            this.car = car;
+        }
+
+        @Override
+        public Object car() {
+            return car;
+        }
+    }
+
+    public static final class ObjectPair extends Pair {
+        public final Object car;
+
+        public ObjectPair(Object car, Object cdr) {
+            super(cdr);
+            this.car = car;
+        }
+
+        @Override
+        public Object car() {
+            return car;
+        }
+    }
+
+    public static Object fromArray(Object[] items) {
+        Object list = Nil.INSTANCE;
+        for (int i = items.length - 1; i >= 0; --i) {
+            list = create(items[i], list);
+        }
+        return list;
+    }
+
+    @TruffleBoundary
+    public static long length(Object list) {
+        long n = 0;
+        for (Object xs = list; xs != Nil.INSTANCE; xs = asPair(xs, list).cdr) {
+            ++n;
+        }
+        return n;
+    }
+
+    // Keeps the shape of every cell.
+    @TruffleBoundary
+    public static Object reverse(Object list) {
+        Object res = Nil.INSTANCE;
+        for (Object xs = list; xs != Nil.INSTANCE; xs = ((Pair) xs).cdr) {
+            res = copy(asPair(xs, list), res);
+        }
+        return res;
+    }
+
+    // Copies the first list and shares the second.
+    @TruffleBoundary
+    public static Object append(Object front, Object back) {
+        Object reversed = reverse(front);
+        Object res = back;
+        for (Object xs = reversed; xs != Nil.INSTANCE; xs = ((Pair) xs).cdr) {
+            res = copy((Pair) xs, res);
+        }
+        return res;
+    }
+
+    private static Pair copy(Pair p, Object cdr) {
+        return p instanceof LongPair ? new LongPair(((LongPair) p).car, cdr)
+                : new ObjectPair(((ObjectPair) p).car, cdr);
+    }
+
+    private static Pair asPair(Object xs, Object list) {
+        if (!(xs instanceof Pair)) {
+            throw Exceptions.error("not a proper list", list);
+        }
+        return (Pair) xs;
+    }
+
+    @Override
+    @TruffleBoundary
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        Object xs = this;
+        while (xs instanceof Pair) {
+            if (xs != this) {
+                sb.append(' ');
+            }
+            sb.append(((Pair) xs).car());
+            xs = ((Pair) xs).cdr;
+        }
+        if (xs != Nil.INSTANCE) {
+            sb.append(" . ").append(xs);
+        }
+        return sb.append(')').toString();
+    }
+}
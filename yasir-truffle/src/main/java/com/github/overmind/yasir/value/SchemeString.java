@@ -0,0 +1,235 @@
+package com.github.overmind.yasir.value;
+
+import com.github.overmind.yasir.ast.Exceptions;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// A string's contents are a byte[] of Latin-1 when every character fits one, a char[] of
+// UTF-16 otherwise, or a Rope. string-append makes a rope over its operands instead of
+// copying them, so building a string piece by piece is linear. The rope is flattened into
+// an array the first time a character is needed.
+//
+// Literals and strings made from symbols are immutable. Writing a character that doesn't fit
+// Latin-1 widens the contents to UTF-16. A rope holds on to its operands' contents rather
+// than to the operands, and a mutable string whose contents went into a rope copies them
+// before its first write, so later writes don't show through the rope.
+public final class SchemeString {
+    public static final SchemeString EMPTY = new SchemeString(new byte[0], 0, false);
+
+    private Object contents;
+    private final int length;
+    private final boolean mutable;
+    private boolean shared;
+
+    private SchemeString(Object contents, int length, boolean mutable) {
+        this.contents = contents;
+        this.length = length;
+        this.mutable = mutable;
+    }
+
+    @TruffleBoundary
+    public static SchemeString create(String s, boolean mutable) {
+        int n = s.length();
+        byte[] bytes = new byte[n];
+        for (int i = 0; i < n; ++i) {
+            char c = s.charAt(i);
+            if (c > 0xff) {
+                return new SchemeString(s.toCharArray(), n, mutable);
+            }
+            bytes[i] = (byte) c;
+        }
+        return new SchemeString(bytes, n, mutable);
+    }
+
+    public static SchemeString filled(long length, char c) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("make-string: bad length", length);
+        }
+        int n = (int) length;
+        if (c > 0xff) {
+            char[] chars = new char[n];
+            Arrays.fill(chars, c);
+            return new SchemeString(chars, n, true);
+        }
+        byte[] bytes = new byte[n];
+        Arrays.fill(bytes, (byte) c);
+        return new SchemeString(bytes, n, true);
+    }
+
+    public static SchemeString append(SchemeString left, SchemeString right) {
+        if (left.length == 0) {
+            return right.mutable ? right.copy() : right;
+        } else if (right.length == 0) {
+            return left.mutable ? left.copy() : left;
+        }
+        int n = left.length + right.length;
+        if (n < 0) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("string-append: string too long", left, right);
+        }
+        left.shared = true;
+        right.shared = true;
+        return new SchemeString(new Rope(left.contents, right.contents), n, true);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isLatin1() {
+        return isLatin1(contents);
+    }
+
+    private static boolean isLatin1(Object c) {
+        return c instanceof byte[] || c instanceof Rope && ((Rope) c).latin1;
+    }
+
+    public char charAt(long ix) {
+        if (ix < 0 || ix >= length) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("string index out of range", this, ix);
+        }
+        Object c = contents;
+        if (c instanceof Rope) {
+            c = flatten();
+        }
+        return c instanceof byte[] ? (char) (((byte[]) c)[(int) ix] & 0xff) : ((char[]) c)[(int) ix];
+    }
+
+    public void setCharAt(long ix, char value) {
+        if (!mutable) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("string-set!: string is immutable", this);
+        } else if (ix < 0 || ix >= length) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("string index out of range", this, ix);
+        }
+        Object c = contents;
+        if (c instanceof Rope) {
+            c = flatten();
+        }
+        if (shared) {
+            c = unshare();
+        }
+        if (c instanceof byte[] && value <= 0xff) {
+            ((byte[]) c)[(int) ix] = (byte) value;
+        } else {
+            widen()[(int) ix] = value;
+        }
+    }
+
+    @TruffleBoundary
+    public SchemeString substring(long start, long end) {
+        if (start < 0 || end < start || end > length) {
+            throw Exceptions.error("substring: bad range", this, start, end);
+        }
+        Object c = contents instanceof Rope ? flatten() : contents;
+        int from = (int) start;
+        int to = (int) end;
+        if (c instanceof byte[]) {
+            return new SchemeString(Arrays.copyOfRange((byte[]) c, from, to), to - from, true);
+        }
+        return create(new String((char[]) c, from, to - from), true);
+    }
+
+    public SchemeString copy() {
+        return substring(0, length);
+    }
+
+    @TruffleBoundary
+    public static boolean contentEquals(SchemeString a, SchemeString b) {
+        if (a == b) {
+            return true;
+        } else if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; ++i) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @TruffleBoundary
+    private Object flatten() {
+        boolean latin1 = isLatin1();
+        byte[] bytes = latin1 ? new byte[length] : null;
+        char[] chars = latin1 ? null : new char[length];
+        int pos = 0;
+        // Iterative, as ropes built by appending in a loop are as deep as they are long.
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(contents);
+        while (!pending.isEmpty()) {
+            Object c = pending.pop();
+            if (c instanceof Rope) {
+                pending.push(((Rope) c).right);
+                pending.push(((Rope) c).left);
+            } else if (c instanceof byte[] && latin1) {
+                System.arraycopy(c, 0, bytes, pos, ((byte[]) c).length);
+                pos += ((byte[]) c).length;
+            } else if (c instanceof byte[]) {
+                for (byte b : (byte[]) c) {
+                    chars[pos++] = (char) (b & 0xff);
+                }
+            } else {
+                System.arraycopy(c, 0, chars, pos, ((char[]) c).length);
+                pos += ((char[]) c).length;
+            }
+        }
+        // The rope may still be shared, the fresh array isn't.
+        contents = latin1 ? bytes : chars;
+        shared = false;
+        return contents;
+    }
+
+    @TruffleBoundary
+    private Object unshare() {
+        contents = contents instanceof byte[] ? ((byte[]) contents).clone() : ((char[]) contents).clone();
+        shared = false;
+        return contents;
+    }
+
+    @TruffleBoundary
+    private char[] widen() {
+        if (contents instanceof byte[]) {
+            byte[] bytes = (byte[]) contents;
+            char[] chars = new char[length];
+            for (int i = 0; i < length; ++i) {
+                chars[i] = (char) (bytes[i] & 0xff);
+            }
+            contents = chars;
+        }
+        return (char[]) contents;
+    }
+
+    @Override
+    @TruffleBoundary
+    public String toString() {
+        Object c = contents instanceof Rope ? flatten() : contents;
+        if (c instanceof byte[]) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; ++i) {
+                chars[i] = (char) (((byte[]) c)[i] & 0xff);
+            }
+            return new String(chars);
+        }
+        return new String((char[]) c);
+    }
+
+    private static final class Rope {
+        final Object left;
+        final Object right;
+        final boolean latin1;
+
+        Rope(Object left, Object right) {
+            this.left = left;
+            this.right = right;
+            this.latin1 = isLatin1(left) && isLatin1(right);
+        }
+    }
+}
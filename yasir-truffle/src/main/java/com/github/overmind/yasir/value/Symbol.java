@@ -1,18 +1,81 @@
 package com.github.overmind.yasir.value;
 
-import java.util.HashMap;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 
-public interface Symbol {
-    String name();
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
 
-    HashMap<String, Symbol> nameMap = new HashMap<>();
+// Symbols are interned, so eq? is identity. The table only holds on to them weakly: a symbol
+// that nothing refers to any more can be collected, and a later apply makes a fresh one.
+// Looking up a symbol that exists doesn't lock.
+public final class Symbol {
+    private static final ConcurrentHashMap<String, Ref> table = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> collected = new ReferenceQueue<>();
 
-    static Symbol apply(String name) {
-        Symbol sym =  nameMap.get(name);
-        if (sym == null) {
-            sym = () -> name;
-            nameMap.put(name, sym);
+    private final String name;
+    private final int hash;
+
+    private Symbol(String name) {
+        this.name = name;
+        this.hash = name.hashCode();
+    }
+
+    // A ConcurrentHashMap lookup isn't something to partially evaluate: string->symbol calls
+    // this from compiled code.
+    @TruffleBoundary
+    public static Symbol apply(String name) {
+        Ref ref = table.get(name);
+        Symbol sym = ref == null ? null : ref.get();
+        return sym != null ? sym : intern(name);
+    }
+
+    @TruffleBoundary
+    private static Symbol intern(String name) {
+        expungeCollected();
+        Symbol fresh = new Symbol(name);
+        Ref freshRef = new Ref(fresh);
+        while (true) {
+            Ref ref = table.putIfAbsent(name, freshRef);
+            if (ref == null) {
+                return fresh;
+            }
+            Symbol sym = ref.get();
+            if (sym != null) {
+                return sym;
+            }
+            // Collected but not expunged yet.
+            table.replace(name, ref, freshRef);
+        }
+    }
+
+    private static void expungeCollected() {
+        Ref ref;
+        while ((ref = (Ref) collected.poll()) != null) {
+            table.remove(ref.name, ref);
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static final class Ref extends WeakReference<Symbol> {
+        final String name;
+
+        Ref(Symbol sym) {
+            super(sym, collected);
+            this.name = sym.name;
         }
-        return sym;
     }
 }
@@ -0,0 +1,163 @@
+package com.github.overmind.yasir.value;
+
+import com.github.overmind.yasir.ast.Exceptions;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import java.util.Arrays;
+
+// Vectors keep their elements in the narrowest storage that holds all of them: long[] for
+// fixnums, double[] for flonums and Object[] for anything else, including a mix of fixnums
+// and flonums, which have to keep their exactness. A write that doesn't fit the storage
+// migrates the vector to Object[] in place. Vectors of length zero share EMPTY, which can't
+// be written to and so never migrates.
+//
+// The nodes in PrimOp specialize on the storage class; get and set here are the generic path.
+public final class Vector {
+    private static final Object EMPTY = new Object[0];
+
+    private Object storage;
+
+    private Vector(Object storage) {
+        this.storage = storage;
+    }
+
+    // The fill decides the storage. Without one the elements are unspecified; they are 0.
+    public static Vector create(long length, Object fill) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("make-vector: bad length", length);
+        }
+        int n = (int) length;
+        if (n == 0) {
+            return new Vector(EMPTY);
+        } else if (fill instanceof Long) {
+            long[] longs = new long[n];
+            if ((long) fill != 0) {
+                Arrays.fill(longs, (long) fill);
+            }
+            return new Vector(longs);
+        } else if (fill instanceof Double) {
+            double[] doubles = new double[n];
+            Arrays.fill(doubles, (double) fill);
+            return new Vector(doubles);
+        }
+        Object[] objects = new Object[n];
+        Arrays.fill(objects, fill);
+        return new Vector(objects);
+    }
+
+    public static Vector fromValues(Object[] values) {
+        if (values.length == 0) {
+            return new Vector(EMPTY);
+        }
+        boolean allLongs = true;
+        boolean allDoubles = true;
+        for (Object v : values) {
+            allLongs &= v instanceof Long;
+            allDoubles &= v instanceof Double;
+        }
+        if (allLongs) {
+            long[] longs = new long[values.length];
+            for (int i = 0; i < values.length; ++i) {
+                longs[i] = (long) values[i];
+            }
+            return new Vector(longs);
+        } else if (allDoubles) {
+            double[] doubles = new double[values.length];
+            for (int i = 0; i < values.length; ++i) {
+                doubles[i] = (double) values[i];
+            }
+            return new Vector(doubles);
+        }
+        return new Vector(values.clone());
+    }
+
+    public Object storage() {
+        return storage;
+    }
+
+    public boolean isEmpty() {
+        return storage == EMPTY;
+    }
+
+    public boolean isLongs() {
+        return storage instanceof long[];
+    }
+
+    public boolean isDoubles() {
+        return storage instanceof double[];
+    }
+
+    public boolean isObjects() {
+        return storage instanceof Object[];
+    }
+
+    public int length() {
+        Object s = storage;
+        if (s instanceof long[]) {
+            return ((long[]) s).length;
+        } else if (s instanceof double[]) {
+            return ((double[]) s).length;
+        }
+        return ((Object[]) s).length;
+    }
+
+    // The index check for the specialized nodes, which index the storage array directly.
+    public static int index(long ix, int length) {
+        if (ix < 0 || ix >= length) {
+            CompilerDirectives.transferToInterpreter();
+            throw Exceptions.error("vector index out of range", ix);
+        }
+        return (int) ix;
+    }
+
+    public Object get(long ix) {
+        Object s = storage;
+        int i = index(ix, length());
+        if (s instanceof long[]) {
+            return ((long[]) s)[i];
+        } else if (s instanceof double[]) {
+            return ((double[]) s)[i];
+        }
+        return ((Object[]) s)[i];
+    }
+
+    public void set(long ix, Object value) {
+        int i = index(ix, length());
+        Object s = storage;
+        if (s instanceof long[] && value instanceof Long) {
+            ((long[]) s)[i] = (long) value;
+        } else if (s instanceof double[] && value instanceof Double) {
+            ((double[]) s)[i] = (double) value;
+        } else {
+            toObjects()[i] = value;
+        }
+    }
+
+    @TruffleBoundary
+    private Object[] toObjects() {
+        if (!(storage instanceof Object[])) {
+            int n = length();
+            Object[] objects = new Object[n];
+            for (int i = 0; i < n; ++i) {
+                objects[i] = get(i);
+            }
+            storage = objects;
+        }
+        return (Object[]) storage;
+    }
+
+    @Override
+    @TruffleBoundary
+    public String toString() {
+        StringBuilder sb = new StringBuilder("#(");
+        for (int i = 0; i < length(); ++i) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(get(i));
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -3,16 +3,63 @@ package com.github.overmind.yasir.test;
 import com.github.overmind.yasir.ast.TestLoopClosure;
 import com.github.overmind.yasir.interp.Interp;
 import com.github.overmind.yasir.ast.Expr;
+import com.github.overmind.yasir.parse.ParseError;
+import com.github.overmind.yasir.parse.Parser;
 import com.github.overmind.yasir.value.Box;
+import com.github.overmind.yasir.value.Global;
+import com.github.overmind.yasir.value.Nil;
+import com.github.overmind.yasir.value.Symbol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class ExprTest {
     private void assertEvaluatesTo(Expr expr, Object res) {
         assertEquals(Interp.run(expr), res);
     }
 
+    private void assertEvaluatesTo(String source, Object res) {
+        assertEvaluatesTo(Parser.compile(source), res);
+    }
+
+    // Global cells outlive the programs that use them, so every test puts them back the way it
+    // found them, unbound or not.
+    private final Map<Global, Object> savedGlobals = new IdentityHashMap<>();
+
+    @BeforeClass
+    public static void bindBuiltins() {
+        // The first reference to a global binds them, so that they're bound in every snapshot.
+        Parser.compile("car");
+    }
+
+    @Before
+    public void saveGlobals() {
+        for (Global cell : Global.all()) {
+            savedGlobals.put(cell, cell.value());
+        }
+    }
+
+    @After
+    public void restoreGlobals() {
+        for (Global cell : Global.all()) {
+            cell.setValue(savedGlobals.get(cell));
+        }
+    }
+
     private void assertEvaluatesToBoxed(Expr expr, Object res) {
         assertEquals(((Box) Interp.run(expr)).value(), res);
     }
@@ -21,4 +68,298 @@ public class ExprTest {
     public void testLoopFast() {
         assertEquals(55, TestLoopClosure.call(10));
     }
+
+    @Test
+    public void testFibo() {
+        assertEvaluatesTo("(define (fibo n) (if (< n 2) n (+ (fibo (- n 1)) (fibo (- n 2)))))" +
+                "(fibo 20)", 6765L);
+    }
+
+    @Test
+    public void testNamedLet() {
+        assertEvaluatesTo("(let loop ((i 100000) (s 0)) (if (< i 1) s (loop (- i 1) (+ s i))))", 5000050000L);
+    }
+
+    @Test
+    public void testSelfTailLoop() {
+        assertEvaluatesTo("(define (sum n) (let loop ((i 0) (s 0)) (if (< i n) (loop (+ i 1) (+ s i)) s)))" +
+                "(sum 100000)", 4999950000L);
+        // Each iteration has its own i.
+        assertEvaluatesTo("(let loop ((i 0) (f #f)) (if (< i 3) (loop (+ i 1) (if (= i 1) (lambda () i) f)) (f)))", 1L);
+        // And its own boxes, for the locals that are assigned after closures capture them.
+        assertEvaluatesTo("(let loop ((i 0) (f #f)) (if (< i 3)" +
+                "  (let ((x 0)) (set! x i) (loop (+ i 1) (if (< i 1) f (if (< 1 i) f (lambda () x)))))" +
+                "  (f)))", 1L);
+        assertEvaluatesTo("(let loop ((i 0) (fs '())) (if (< i 3)" +
+                "  (let ((x 0)) (set! x i) (loop (+ i 1) (if (< i 1) fs (cons (lambda () x) fs))))" +
+                "  (+ (* 10 ((car (cdr fs)))) ((car fs)))))", 12L);
+    }
+
+    @Test
+    public void testNumericTower() {
+        assertEvaluatesTo("(+ 9223372036854775807 1)", new BigInteger("9223372036854775808"));
+        assertEvaluatesTo("(- (+ 9223372036854775807 1) 1)", 9223372036854775807L);
+        assertEvaluatesTo("(+ 1.5 2)", 3.5);
+        assertEvaluatesTo("(* 4294967296 4294967296)", new BigInteger("18446744073709551616"));
+        assertEvaluatesTo("(modulo -7 2)", 1L);
+        assertEvaluatesTo("(quotient (* 4294967296 4294967296) 4294967296)", 4294967296L);
+        assertEvaluatesTo("(< (* 4294967296 4294967296) 1e20)", true);
+        // Bignum results that fit a fixnum are fixnums, whichever specialization made them.
+        assertEvaluatesTo("(define (num-abs x) (abs x)) (num-abs -9223372036854775808) (eqv? (num-abs -3) 3)", true);
+        assertEvaluatesTo("(eqv? (min 1 100000000000000000000) 1)", true);
+        // Dividing by zero is an error the program can handle, and doesn't leave the fixnum path.
+        assertEvaluatesTo("(define (num-q a b) (quotient a b))" +
+                "(guard (e ((error-object? e) (num-q 7 2))) (num-q 1 0))", 3L);
+        // So are operands of the wrong type.
+        assertEvaluatesTo("(guard (e (#t 'x)) (+ 'a 1))", Symbol.apply("x"));
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e)))) (modulo 1.5 2))", 1.5);
+        assertEvaluatesTo("(guard (e ((error-object? e) (string-length (car (cdr (error-object-irritants e))))))" +
+                "  (< 1 \"ab\"))", 2L);
+        assertEvaluatesTo("(define (f op) (op 1 'a)) (guard (e (#t 'x)) (f *))", Symbol.apply("x"));
+        assertEvaluatesTo("(+ .5 1e1 -2.)", 8.5);
+        // Java's own spellings of numbers are symbols.
+        assertEvaluatesTo("(eq? '1f (string->symbol \"1f\"))", true);
+        assertEvaluatesTo("(eq? '0x1p3 (string->symbol \"0x1p3\"))", true);
+    }
+
+    @Test
+    public void testTruthiness() {
+        assertEvaluatesTo("(if '() 1 2)", 1L);
+        // The condition starts out boolean, then isn't.
+        assertEvaluatesTo("(define (f x) (if x 1 2)) (+ (f #t) (f #f) (f 0) (f #f))", 6L);
+        assertEvaluatesTo("(or #f 3)", 3L);
+        assertEvaluatesTo("(cond (#f => car) ((cdr '(1 2)) => car) (else 0))", 2L);
+    }
+
+    @Test
+    public void testVariadicPrimitives() {
+        assertEvaluatesTo("(- 10 1 2 3)", 4L);
+        assertEvaluatesTo("(< 1 3 2)", false);
+        // First-class calls go through the argument-count cache instead of being expanded.
+        assertEvaluatesTo("(define (f op) (op 1 2 3)) (f +)", 6L);
+        assertEvaluatesTo("(define (f op) (op 1 2 3)) (f <)", true);
+        assertEvaluatesTo("(define (f op) (op 5)) (f -)", -5L);
+        // More argument counts than the cache holds.
+        assertEvaluatesTo("(define (f op) (+ (op 1) (op 1 2) (op 1 2 3) (op 1 2 3 4) (op 1 2 3 4 5))) (f +)", 35L);
+        assertEvaluatesTo("(define (f op) (and (op 1) (op 1 2) (op 1 2 3) (op 1 2 3 4) (if (op 1 3 2) #f #t))) (f <)", true);
+    }
+
+    @Test
+    public void testLists() {
+        assertEvaluatesTo("(define (sum xs acc) (if (null? xs) acc (sum (cdr xs) (+ acc (car xs)))))" +
+                "(sum (append '(1 2) (reverse (cons 3 '(4 5)))) 0)", 15L);
+        assertEvaluatesTo("(length (cdr '(a (b c) d)))", 2L);
+        assertEvaluatesTo("(pair? (car '((1))))", true);
+        assertEvaluatesTo("(define (assq k al) (if (null? al) #f (if (eq? (car (car al)) k) (car al) (assq k (cdr al)))))" +
+                "(car (cdr (assq 'b '((a 1) (b 2)))))", 2L);
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e)))) (car '()))", Nil.INSTANCE);
+        assertEvaluatesTo("(guard (e ((error-object? e) (cdr (car (error-object-irritants e))))) (length (cons 1 2)))", 2L);
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e)))) (reverse 5))", 5L);
+        assertEvaluatesTo("(guard (e ((error-object? e) (string=? (error-object-message e) \"not a proper list\")))" +
+                "  (append '(1 . 2) '()))", true);
+        assertEvaluatesTo("(define (list-cdr x) (cdr x)) (list-cdr '(1))" +
+                "(guard (e ((error-object? e) (car (error-object-irritants e)))) (list-cdr 5))", 5L);
+    }
+
+    @Test
+    public void testVectors() {
+        assertEvaluatesTo("(define v (make-vector 100 0))" +
+                "(define (fill i) (if (< i 100) (begin (vector-set! v i i) (fill (+ i 1)))))" +
+                "(define (sum i acc) (if (< i 100) (sum (+ i 1) (+ acc (vector-ref v i))) acc))" +
+                "(fill 0) (sum 0 0)", 4950L);
+        // Storing a fixnum into flonum storage migrates it rather than converting the fixnum.
+        assertEvaluatesTo("(define v (vector 1.5 2.5)) (vector-set! v 0 1) (vector-ref v 0)", 1L);
+        // Bad lengths, indices and arguments are errors the program can handle.
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e)))) (vector-ref (vector 1 2) 2))", 2L);
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e)))) (make-vector -1))", -1L);
+        assertEvaluatesTo("(guard (e (#t 'x)) (make-vector 'a))", Symbol.apply("x"));
+        assertEvaluatesTo("(guard (e (#t 'x)) (vector-length '(1)))", Symbol.apply("x"));
+    }
+
+    @Test
+    public void testStrings() {
+        assertEvaluatesTo("(define (build n acc) (if (= n 0) acc (build (- n 1) (string-append acc \"xy\"))))" +
+                "(string-ref (build 10000 \"\") 19999)", 'y');
+        assertEvaluatesTo("(string-ref (string-append \"ab\" \"\u0101\") 2)", '\u0101');
+        assertEvaluatesTo("(string=? (substring \"hello\" 1 3) \"el\")", true);
+        // The rope keeps what a held when it was appended.
+        assertEvaluatesTo("(define a (make-string 2 #\\a)) (define b (string-append a \"z\"))" +
+                "(string-set! a 0 #\\q) (string-ref b 0)", 'a');
+        assertEvaluatesTo("(eq? (string->symbol (symbol->string 'foo)) 'foo)", true);
+        // Bad indices, ranges and lengths, writes to literals and wrong types are errors the
+        // program can handle.
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (cdr (error-object-irritants e))))) (string-ref \"ab\" 2))", 2L);
+        assertEvaluatesTo("(guard (e ((error-object? e) 'x)) (string-set! \"ab\" 0 #\\c))", Symbol.apply("x"));
+        assertEvaluatesTo("(guard (e ((error-object? e) 'x)) (substring \"ab\" 1 0))", Symbol.apply("x"));
+        assertEvaluatesTo("(guard (e ((error-object? e) 'x)) (make-string -1))", Symbol.apply("x"));
+        assertEvaluatesTo("(guard (e ((error-object? e) 'x)) (make-string 2 2))", Symbol.apply("x"));
+        assertEvaluatesTo("(guard (e ((error-object? e) 'x)) (string-append \"a\" 'b))", Symbol.apply("x"));
+    }
+
+    @Test
+    public void testHashTables() {
+        assertEvaluatesTo("(define t (make-hash-table))" +
+                "(define (fill i) (if (< i 1000) (begin (hash-table-set! t i (* i i)) (fill (+ i 1)))))" +
+                "(define (sum i acc) (if (< i 1000) (sum (+ i 1) (+ acc (hash-table-ref t i))) acc))" +
+                "(fill 0) (sum 0 0)", 332833500L);
+        // A string key moves the table off symbol keys.
+        assertEvaluatesTo("(define t (make-hash-table)) (hash-table-set! t 'a 1) (hash-table-set! t \"b\" 2)" +
+                "(+ (hash-table-ref t 'a) (hash-table-ref t (string-append \"\" \"b\")))", 3L);
+        assertEvaluatesTo("(hash-table-ref/default (make-hash-table eq?) 'q 0)", 0L);
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e)))) (hash-table-ref (make-hash-table) 'q))",
+                Symbol.apply("q"));
+        assertEvaluatesTo("(guard (e ((error-object? e) 'x)) (make-hash-table string=?))", Symbol.apply("x"));
+        assertEvaluatesTo("(guard (e ((error-object? e) 'x)) (hash-table-set! '() 1 2))", Symbol.apply("x"));
+    }
+
+    @Test
+    public void testEscapingContinuations() {
+        assertEvaluatesTo("(+ 1 (call/cc (lambda (k) (+ 10 (k 2)))))", 3L);
+        // The escape passes through the tail calls of loop.
+        assertEvaluatesTo("(define (find-first p xs)" +
+                "  (call/cc (lambda (return)" +
+                "    (define (loop xs) (if (null? xs) #f (begin (if (p (car xs)) (return (car xs))) (loop (cdr xs)))))" +
+                "    (loop xs))))" +
+                "(find-first (lambda (x) (< 3 x)) '(1 2 5 7))", 5L);
+        assertEvaluatesTo("(call/cc (lambda (k1) (+ 100 (call/cc (lambda (k2) (k1 7))))))", 7L);
+        // Re-entering isn't supported, and is an error the program can handle.
+        assertEvaluatesTo("(let ((k (call/cc (lambda (k) k))))" +
+                "  (guard (e ((error-object? e) (eq? k (car (error-object-irritants e))))) (k 1)))", true);
+    }
+
+    @Test
+    public void testExceptions() {
+        assertEvaluatesTo("(guard (e ((eq? e 'x) 1) ((eq? e 'y) 2)) (+ 1 (raise 'y)))", 2L);
+        assertEvaluatesTo("(with-exception-handler (lambda (e) 10) (lambda () (+ 1 (raise-continuable 'c))))", 11L);
+        // A guard inside the handler's extent is the innermost one.
+        assertEvaluatesTo("(with-exception-handler (lambda (e) 10)" +
+                "  (lambda () (guard (e (#t 20)) (raise 'c))))", 20L);
+        assertEvaluatesTo("(define log '())" +
+                "(guard (e (#t (cons e log)))" +
+                "  (dynamic-wind (lambda () (set! log (cons 'in log))) (lambda () (raise 'boom))" +
+                "    (lambda () (set! log (cons 'out log)))))" +
+                "(car log)", Symbol.apply("out"));
+        // A handler returning from raise raises an error in its own dynamic environment.
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e))))" +
+                "  (with-exception-handler (lambda (e) 10) (lambda () (raise 'x))))", Symbol.apply("x"));
+        // A guard with no clause that applies raises again the way the object was raised, so
+        // the handler can't return from it either.
+        assertEvaluatesTo("(guard (e ((error-object? e)" +
+                "           (string=? (error-object-message e) \"exception handler returned from raise\")))" +
+                "  (with-exception-handler (lambda (e) 7) (lambda () (guard (e (#f 'no)) (raise 'boom)))))", true);
+        assertEvaluatesTo("(with-exception-handler (lambda (e) 7)" +
+                "  (lambda () (guard (e (#f 'no)) (raise-continuable 'boom))))", 7L);
+    }
+
+    @Test
+    public void testClosures() {
+        assertEvaluatesTo("(define (make-counter n) (lambda () (set! n (+ n 1)) n))" +
+                "(define c (make-counter 0))" +
+                "(c) (c) (c)", 3L);
+        assertEvaluatesTo("(define (f x) (define (g y) (define (h z) (+ x (+ y z))) (h 3)) (g 2))" +
+                "(f 1)", 6L);
+        // Flat closures copy n and x; the assigned parameter a keeps the closure on a's frame.
+        assertEvaluatesTo("(define (f n) (lambda (x) (lambda (y) (+ n (+ x y)))))" +
+                "(((f 1) 2) 3)", 6L);
+        assertEvaluatesTo("(define (f a) (lambda () (set! a (+ a 1)) a))" +
+                "(define c (f 10))" +
+                "(c) (c)", 12L);
+        // g is only ever called, so it gets f's frame without being made into a closure.
+        assertEvaluatesTo("(define (f n) (define (g) n) (lambda () (g)))" +
+                "((f 7))", 7L);
+    }
+
+    @Test
+    public void testGlobals() {
+        // Top-level definitions are seen by programs compiled later, and redefining one
+        // changes what the code that folded it sees.
+        assertEvaluatesTo("(define (global-k) 1) (define (global-g) (+ (global-k) 1)) (global-g)", 2L);
+        assertEvaluatesTo("(define (global-k) 10) (global-g)", 11L);
+        assertEvaluatesTo("(define global-n 0)" +
+                "(define (global-count i) (if (< i 100) (begin (set! global-n (+ global-n i)) (global-count (+ i 1)))))" +
+                "(global-count 0) global-n", 4950L);
+        // Reading or assigning an unbound global is an error the program can handle.
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e)))) global-unbound)",
+                Symbol.apply("global-unbound"));
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e)))) (set! global-unbound 1))",
+                Symbol.apply("global-unbound"));
+    }
+
+    @Test
+    public void testPrimitiveCallsThroughGlobals() {
+        // The call to abs runs Abs' node until abs is assigned something else.
+        assertEvaluatesTo("(define (global-abs x) (abs x)) (global-abs -3)", 3L);
+        assertEvaluatesTo("(define saved-abs abs) (set! abs (lambda (x) 'no)) (global-abs -3)", Symbol.apply("no"));
+        assertEvaluatesTo("(set! abs saved-abs) (global-abs -4)", 4L);
+        // The generic call evaluates copies of the arguments the inlined node had.
+        assertEvaluatesTo("(define (global-abs2 x) (abs (- x (abs x)))) (global-abs2 -3)", 6L);
+        assertEvaluatesTo("(set! abs (lambda (x) (* x 10))) (global-abs2 -3)", 270L);
+    }
+
+    @Test
+    public void testRestArguments() {
+        assertEvaluatesTo("(define (rest-f a . rest) (cons a rest)) (length (rest-f 1 2 3))", 3L);
+        assertEvaluatesTo("((lambda xs xs))", Nil.INSTANCE);
+        assertEvaluatesTo("(define (rest-sum acc . xs) (if (null? xs) acc (rest-sum (+ acc (car xs)))))" +
+                "(rest-sum 1 2)", 3L);
+        assertEvaluatesTo("(cdr '(1 . 2))", 2L);
+    }
+
+    @Test
+    public void testWrongArgumentCount() {
+        // An error the program can handle, naming the function and the argument count.
+        assertEvaluatesTo("(define (arity-f x) x)" +
+                "(guard (e ((error-object? e) (let ((xs (error-object-irritants e)))" +
+                "                               (and (eq? (car xs) 'arity-f) (car (cdr xs))))))" +
+                "  (arity-f 1 2))", 2L);
+        assertEvaluatesTo("(guard (e ((error-object? e) (car (error-object-irritants e)))) (car 1 2))", Symbol.apply("car"));
+        assertEvaluatesTo("(define (arity-g op) (op))" +
+                "(guard (e ((error-object? e) (car (error-object-irritants e)))) (arity-g -))", Symbol.apply("-"));
+    }
+
+    @Test
+    public void testSerializedPrograms() throws IOException {
+        String source = "(define (ser-f n) (let loop ((i 0) (acc '())) (if (< i n) (loop (+ i 1) (cons i acc)) acc)))" +
+                "(define (ser-g . xs) (lambda () (length xs)))" +
+                "(define (ser-h) (define n 0) (define (bump) (set! n (+ n 1))) (bump) (bump) (lambda () n))" +
+                "(guard (e (#t (+ ((ser-g 1 2)) (length (ser-f 10)) (string-length \"ab\") ((ser-h)))))" +
+                "  (raise '(x . 1.5)))";
+        byte[] serialized = Parser.serialize(new StringReader(source));
+        assertEvaluatesTo(Parser.compile(ByteBuffer.wrap(serialized)), 16L);
+
+        Path file = Files.createTempFile("yasir", ".ysir");
+        try {
+            Files.write(file, serialized);
+            assertEvaluatesTo(Parser.load(file), 16L);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private void assertMalformed(byte[] serialized) {
+        try {
+            Parser.compile(ByteBuffer.wrap(serialized));
+            fail("loaded a malformed program");
+        } catch (ParseError expected) {
+        }
+    }
+
+    @Test
+    public void testMalformedSerializedPrograms() {
+        assertMalformed(new byte[]{'N', 'O', 'P', 'E', 1, 0, 0});
+        // Version 2.
+        assertMalformed(new byte[]{'Y', 'S', 'I', 'R', 2, 0, 0});
+        byte[] serialized = Parser.serialize(new StringReader("(define (f x) (+ x 1)) (f 2)"));
+        assertMalformed(Arrays.copyOf(serialized, serialized.length / 2));
+        // main's name is symbol 0 of none.
+        assertMalformed(new byte[]{'Y', 'S', 'I', 'R', 3, 0, 1, 0, 0, 0, 0, 0, 0, 0});
+        // main's body is a reference to its variable 5 of none.
+        assertMalformed(new byte[]{'Y', 'S', 'I', 'R', 3, 1, 1, 'm', 1, 0, 0, 0, 0, 0, 1, 0, 5});
+        // A symbol table longer than the file.
+        assertMalformed(new byte[]{'Y', 'S', 'I', 'R', 3, (byte) 0xff, (byte) 0xff, 0x7f});
+        // main has a flat closure but no environment.
+        assertMalformed(new byte[]{'Y', 'S', 'I', 'R', 3, 1, 1, 'm', 1, 0, 0, 4, 0, 0, 0, 0});
+        // main's local is known, but not bound to a lambda.
+        assertMalformed(new byte[]{'Y', 'S', 'I', 'R', 3, 1, 1, 'm', 1, 0, 0, 0, 0, 1, 0, 2, 0, 0, 0});
+    }
 }